@@ -0,0 +1,19 @@
+package ch.shamu.jsendnrdp;
+
+/**
+ * Thrown when the NRDP server accepted the request but rejected the submitted check results, as opposed to server wide failures (bad
+ * token, error page, unparsable response, ...) which are thrown as plain {@link NRDPException}s
+ */
+public class NRDPRejectionException extends NRDPException {
+
+	private static final long serialVersionUID = 6620185526791412876L;
+
+	/**
+	 * Constructs an instance of <code>NRDPRejectionException</code>
+	 * @param msg the detail message.
+	 */
+	public NRDPRejectionException(String msg) {
+		super(msg);
+	}
+
+}
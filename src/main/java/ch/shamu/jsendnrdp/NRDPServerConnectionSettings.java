@@ -13,7 +13,7 @@ public class NRDPServerConnectionSettings {
 
 	private final String url;
 	private final String token;
-	private final int timeout;
+	private volatile int timeout;
 
 	/**
 	 * @param url is the url of the NRDP server endpoint, example : http://nagios.mydomain.com/nrdp
@@ -47,4 +47,13 @@ public class NRDPServerConnectionSettings {
 		return timeout;
 	}
 
+	/**
+	 * Change the timeout of the requests sent from now on
+	 * @param timeout is the maximum time to wait on the NRPD server's response (in milliseconds)
+	 */
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+		logger.info("NRDP timeout :" + timeout);
+	}
+
 }
@@ -0,0 +1,39 @@
+package ch.shamu.jsendnrdp;
+
+import java.util.Collection;
+
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+
+/**
+ * Thrown when only part of the submitted check results could be delivered, because the NRDP server rejected some of them
+ */
+public class RejectedResultsException extends NRDPException {
+
+	private static final long serialVersionUID = 3532609245212327426L;
+
+	private final Collection<NagiosCheckResult> rejectedResults;
+	private final Collection<NagiosCheckResult> deliveredResults;
+
+	/**
+	 * Constructs an instance of <code>RejectedResultsException</code>
+	 * @param msg the detail message.
+	 * @param cause the last rejection returned by the NRDP server
+	 * @param rejectedResults the results that could not be delivered
+	 * @param deliveredResults the results that were successfully delivered
+	 */
+	public RejectedResultsException(String msg, Throwable cause, Collection<NagiosCheckResult> rejectedResults,
+			Collection<NagiosCheckResult> deliveredResults) {
+		super(msg, cause);
+		this.rejectedResults = rejectedResults;
+		this.deliveredResults = deliveredResults;
+	}
+
+	public Collection<NagiosCheckResult> getRejectedResults() {
+		return rejectedResults;
+	}
+
+	public Collection<NagiosCheckResult> getDeliveredResults() {
+		return deliveredResults;
+	}
+
+}
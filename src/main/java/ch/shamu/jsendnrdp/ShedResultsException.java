@@ -0,0 +1,31 @@
+package ch.shamu.jsendnrdp;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+
+/**
+ * Thrown when queued check results were dropped, without being sent, to make room for more valuable ones
+ */
+public class ShedResultsException extends IOException {
+
+	private static final long serialVersionUID = -2263474036104436213L;
+
+	private final Collection<NagiosCheckResult> shedResults;
+
+	/**
+	 * Constructs an instance of <code>ShedResultsException</code>
+	 * @param msg the detail message.
+	 * @param shedResults the results that were dropped
+	 */
+	public ShedResultsException(String msg, Collection<NagiosCheckResult> shedResults) {
+		super(msg);
+		this.shedResults = shedResults;
+	}
+
+	public Collection<NagiosCheckResult> getShedResults() {
+		return shedResults;
+	}
+
+}
@@ -0,0 +1,264 @@
+package ch.shamu.jsendnrdp.cli;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+import ch.shamu.jsendnrdp.NRDPServerConnectionSettings;
+import ch.shamu.jsendnrdp.domain.BulkSubmissionSummary;
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+import ch.shamu.jsendnrdp.impl.NonBlockingNagiosCheckSender;
+
+/**
+ * <p>
+ * Command line replacement for send_nrdp.php : reads check results from files or from the standard input and streams them to the NRDP
+ * server in batches, over concurrent requests (see {@link NonBlockingNagiosCheckSender#sendAll(Iterator, int)}).
+ *
+ * <pre>
+ * java -cp jsend-nrdp.jar:... ch.shamu.jsendnrdp.cli.BulkSubmitter --url https://nagios/nrdp/ --token secret [options] [file...]
+ * </pre>
+ *
+ * Results are read from the given files, or from the standard input if there's none (or "-"), one result per line (see
+ * {@link CheckResultParser} for the formats). Malformed lines are reported and skipped. A summary is printed once all the results have been
+ * sent, the exit status is 0 if all of them were delivered, 1 if some were not (or were malformed), and 2 if the submission could not run.
+ */
+public final class BulkSubmitter {
+
+	final static int SUCCESS = 0;
+	final static int PARTIAL_FAILURE = 1;
+	final static int ERROR = 2;
+
+	private final static int MAX_REPORTED_MALFORMED_LINES = 10;
+
+	private final static String USAGE = "usage : BulkSubmitter --url <nrdp url> --token <token> [options] [file...]\n" //
+			+ "  --timeout <ms>        NRDP server timeout (default 10000)\n" //
+			+ "  --threads <n>         concurrent requests (default 4)\n" //
+			+ "  --batch-size <n>      results per request (default 1000)\n" //
+			+ "  --rate <n>            maximum requests per second (default unlimited)\n" //
+			+ "  --format <tsv|jsonl>  input format (default tsv : host, service, state and output separated by tabs)\n" //
+			+ "  --delimiter <string>  tsv field delimiter (default tab)\n" //
+			+ "reads the standard input when no file (or -) is given";
+
+	private String url;
+	private String token;
+	private int timeout = 10000;
+	private int threads = 4;
+	private int batchSize = 1000;
+	private double rate;
+	private String format = "tsv";
+	private String delimiter = "\t";
+	private final List<String> files = new ArrayList<String>();
+
+	private BulkSubmitter() {
+	}
+
+	public static void main(String[] args) {
+		System.exit(run(args, System.in, System.out, System.err));
+	}
+
+	/**
+	 * @return the exit status
+	 */
+	static int run(String[] args, InputStream stdin, PrintStream out, PrintStream err) {
+		BulkSubmitter submitter = new BulkSubmitter();
+		CheckResultParser parser;
+		try {
+			submitter.parseArguments(args);
+			parser = submitter.parser();
+		}
+		catch (IllegalArgumentException e) {
+			err.println(e.getMessage());
+			err.println(USAGE);
+			return ERROR;
+		}
+		return submitter.submit(parser, stdin, out, err);
+	}
+
+	private void parseArguments(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (!arg.startsWith("--")) {
+				files.add(arg);
+				continue;
+			}
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("missing value for " + arg);
+			}
+			String value = args[++i];
+			try {
+				switch (arg) {
+				case "--url":
+					url = value;
+					break;
+				case "--token":
+					token = value;
+					break;
+				case "--timeout":
+					timeout = Integer.parseInt(value);
+					break;
+				case "--threads":
+					threads = Integer.parseInt(value);
+					break;
+				case "--batch-size":
+					batchSize = Integer.parseInt(value);
+					break;
+				case "--rate":
+					rate = Double.parseDouble(value);
+					break;
+				case "--format":
+					format = value;
+					break;
+				case "--delimiter":
+					delimiter = value;
+					break;
+				default:
+					throw new IllegalArgumentException("unknown option " + arg);
+				}
+			}
+			catch (NumberFormatException e) {
+				throw new IllegalArgumentException("invalid number for " + arg + " : " + value);
+			}
+		}
+		if (url == null || token == null) {
+			throw new IllegalArgumentException("--url and --token are required");
+		}
+		if (threads <= 0 || batchSize <= 0) {
+			throw new IllegalArgumentException("--threads and --batch-size must be positive");
+		}
+		if (files.isEmpty()) {
+			files.add("-");
+		}
+	}
+
+	private CheckResultParser parser() {
+		switch (format) {
+		case "tsv":
+			return CheckResultParser.tsv(delimiter);
+		case "jsonl":
+			return CheckResultParser.jsonLines();
+		default:
+			throw new IllegalArgumentException("unknown format " + format);
+		}
+	}
+
+	private int submit(CheckResultParser parser, InputStream stdin, PrintStream out, PrintStream err) {
+		// two requests queued per concurrent request keep the workers busy while the input is read
+		NonBlockingNagiosCheckSender sender = new NonBlockingNagiosCheckSender(new NRDPServerConnectionSettings(url, token, timeout), threads,
+				threads * 2, rate);
+		sender.setBatchLimits(batchSize, 0);
+		ResultReader results = new ResultReader(parser, stdin, err);
+		long start = System.nanoTime();
+		try {
+			BulkSubmissionSummary summary = sender.sendAll(results, threads * 2).join();
+			long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			out.println(summary.getDeliveredResults() + " check results delivered, " + summary.getFailedResults() + " failed, "
+					+ results.malformedLines + " malformed lines skipped, in " + summary.getRequests() + " requests and " + millis + "ms ("
+					+ summary.getDeliveredResults() * 1000 / millis + " results/s)");
+			if (summary.getFirstFailure() != null) {
+				err.println("first failure : " + summary.getFirstFailure());
+			}
+			return summary.isSuccessful() && results.malformedLines == 0 ? SUCCESS : PARTIAL_FAILURE;
+		}
+		catch (IOException | UncheckedIOException e) {
+			err.println("submission failed : " + e);
+			return ERROR;
+		}
+		finally {
+			results.close();
+			sender.shutdown();
+		}
+	}
+
+	/**
+	 * Reads the input files one after the other, lazily, skipping malformed lines
+	 */
+	private class ResultReader implements Iterator<NagiosCheckResult> {
+
+		private final CheckResultParser parser;
+		private final InputStream stdin;
+		private final PrintStream err;
+		private int fileIndex;
+		private String fileName;
+		private BufferedReader reader;
+		private long lineNumber;
+		private NagiosCheckResult next;
+		private long malformedLines;
+
+		ResultReader(CheckResultParser parser, InputStream stdin, PrintStream err) {
+			this.parser = parser;
+			this.stdin = stdin;
+			this.err = err;
+		}
+
+		public boolean hasNext() {
+			try {
+				while (next == null) {
+					if (reader == null && !openNextFile()) {
+						return false;
+					}
+					String line = reader.readLine();
+					if (line == null) {
+						close();
+						continue;
+					}
+					lineNumber++;
+					try {
+						next = parser.parse(line);
+					}
+					catch (IllegalArgumentException e) {
+						if (++malformedLines <= MAX_REPORTED_MALFORMED_LINES) {
+							err.println(fileName + ":" + lineNumber + " : malformed line skipped (" + e.getMessage() + ")");
+						}
+					}
+				}
+				return true;
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		public NagiosCheckResult next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			NagiosCheckResult result = next;
+			next = null;
+			return result;
+		}
+
+		private boolean openNextFile() throws IOException {
+			if (fileIndex >= files.size()) {
+				return false;
+			}
+			fileName = files.get(fileIndex++);
+			InputStream in = fileName.equals("-") ? stdin : Files.newInputStream(Paths.get(fileName));
+			reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+			lineNumber = 0;
+			return true;
+		}
+
+		void close() {
+			if (reader != null && !fileName.equals("-")) {
+				try {
+					reader.close();
+				}
+				catch (IOException e) {
+					// nothing left to read anyway
+				}
+			}
+			reader = null;
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package ch.shamu.jsendnrdp.cli;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+import ch.shamu.jsendnrdp.domain.State;
+
+/**
+ * <p>
+ * Parses one check result per line, in one of the formats understood by the {@link BulkSubmitter} :
+ * <ul>
+ * <li>TSV : the send_nrdp.php format, <code>host[tab]service[tab]state[tab]output</code></li>
+ * <li>JSON lines : one flat object per line, <code>{"host": "web1", "service": "disk", "state": 2, "output": "..."}</code> ("hostname",
+ * "servicename" and "message" are accepted too)</li>
+ * </ul>
+ * The state is either a nagios code (0 to 3) or a name (OK, WARNING, CRITICAL, UNKNOWN).
+ */
+abstract class CheckResultParser {
+
+	/**
+	 * @return the parsed result, null if the line is blank
+	 * @throws IllegalArgumentException if the line is malformed
+	 */
+	abstract NagiosCheckResult parse(String line);
+
+	static CheckResultParser tsv(String delimiter) {
+		final Pattern fieldDelimiter = Pattern.compile(Pattern.quote(delimiter));
+		return new CheckResultParser() {
+
+			NagiosCheckResult parse(String line) {
+				if (line.trim().isEmpty()) {
+					return null;
+				}
+				String[] fields = fieldDelimiter.split(line, 4);
+				if (fields.length != 4) {
+					throw new IllegalArgumentException("expected host, service, state and output, found " + fields.length + " fields");
+				}
+				return new NagiosCheckResult(fields[0], fields[1], state(fields[2].trim()), fields[3]);
+			}
+		};
+	}
+
+	static CheckResultParser jsonLines() {
+		return new CheckResultParser() {
+
+			NagiosCheckResult parse(String line) {
+				if (line.trim().isEmpty()) {
+					return null;
+				}
+				Map<String, String> fields = new JsonObjectReader(line).read();
+				String host = first(fields, "host", "hostname");
+				String service = first(fields, "service", "servicename");
+				String state = fields.get("state");
+				String output = first(fields, "output", "message");
+				if (host == null || service == null || state == null || output == null) {
+					throw new IllegalArgumentException("expected host, service, state and output, found " + fields.keySet());
+				}
+				return new NagiosCheckResult(host, service, state(state), output);
+			}
+		};
+	}
+
+	static State state(String value) {
+		if (!value.isEmpty() && Character.isDigit(value.charAt(0))) {
+			return State.fromCode(Integer.parseInt(value));
+		}
+		return State.valueOf(value.toUpperCase());
+	}
+
+	private static String first(Map<String, String> fields, String name, String alias) {
+		String value = fields.get(name);
+		return value != null ? value : fields.get(alias);
+	}
+
+	/**
+	 * Reads a flat JSON object : string, number, boolean or null values, no nested object or array
+	 */
+	private static class JsonObjectReader {
+
+		private final String json;
+		private int position;
+
+		JsonObjectReader(String json) {
+			this.json = json;
+		}
+
+		Map<String, String> read() {
+			Map<String, String> fields = new HashMap<String, String>();
+			expect('{');
+			if (peek() == '}') {
+				position++;
+				return fields;
+			}
+			while (true) {
+				String name = string();
+				expect(':');
+				fields.put(name, value());
+				char next = next();
+				if (next == '}') {
+					break;
+				}
+				if (next != ',') {
+					throw error("expected ',' or '}'");
+				}
+			}
+			if (peek() != 0) {
+				throw error("unexpected content after the object");
+			}
+			return fields;
+		}
+
+		private String value() {
+			char c = peek();
+			if (c == '"') {
+				return string();
+			}
+			int start = position;
+			while (position < json.length() && ",} \t".indexOf(json.charAt(position)) < 0) {
+				position++;
+			}
+			String literal = json.substring(start, position);
+			if (literal.isEmpty() || literal.startsWith("{") || literal.startsWith("[")) {
+				throw error("expected a string, number, boolean or null value");
+			}
+			return literal.equals("null") ? null : literal;
+		}
+
+		private String string() {
+			expect('"');
+			StringBuilder s = new StringBuilder();
+			while (true) {
+				if (position >= json.length()) {
+					throw error("unterminated string");
+				}
+				char c = json.charAt(position++);
+				if (c == '"') {
+					return s.toString();
+				}
+				if (c != '\\') {
+					s.append(c);
+					continue;
+				}
+				if (position >= json.length()) {
+					throw error("unterminated string");
+				}
+				char escaped = json.charAt(position++);
+				switch (escaped) {
+				case 'b':
+					s.append('\b');
+					break;
+				case 'f':
+					s.append('\f');
+					break;
+				case 'n':
+					s.append('\n');
+					break;
+				case 'r':
+					s.append('\r');
+					break;
+				case 't':
+					s.append('\t');
+					break;
+				case 'u':
+					if (position + 4 > json.length()) {
+						throw error("truncated unicode escape");
+					}
+					s.append((char) Integer.parseInt(json.substring(position, position + 4), 16));
+					position += 4;
+					break;
+				default:
+					s.append(escaped);
+				}
+			}
+		}
+
+		private void expect(char expected) {
+			if (next() != expected) {
+				throw error("expected '" + expected + "'");
+			}
+		}
+
+		private char next() {
+			char c = peek();
+			position++;
+			return c;
+		}
+
+		private char peek() {
+			while (position < json.length() && Character.isWhitespace(json.charAt(position))) {
+				position++;
+			}
+			return position < json.length() ? json.charAt(position) : 0;
+		}
+
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(message + " at column " + (position + 1));
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package ch.shamu.jsendnrdp.domain;
+
+/**
+ * Outcome of a bulk submission of check results
+ */
+public class BulkSubmissionSummary {
+
+	private final long requests;
+	private final long deliveredResults;
+	private final long failedResults;
+	private final Throwable firstFailure;
+
+	/**
+	 * @param requests is the number of requests sent to the NRDP server
+	 * @param deliveredResults is the number of check results successfully delivered
+	 * @param failedResults is the number of check results that could not be delivered
+	 * @param firstFailure is the first error that occurred, null if all results were delivered
+	 */
+	public BulkSubmissionSummary(long requests, long deliveredResults, long failedResults, Throwable firstFailure) {
+		this.requests = requests;
+		this.deliveredResults = deliveredResults;
+		this.failedResults = failedResults;
+		this.firstFailure = firstFailure;
+	}
+
+	public long getRequests() {
+		return requests;
+	}
+
+	public long getDeliveredResults() {
+		return deliveredResults;
+	}
+
+	public long getFailedResults() {
+		return failedResults;
+	}
+
+	public Throwable getFirstFailure() {
+		return firstFailure;
+	}
+
+	public boolean isSuccessful() {
+		return failedResults == 0;
+	}
+
+	@Override
+	public String toString() {
+		return "{requests:" + requests + ",delivered:" + deliveredResults + ",failed:" + failedResults + "}";
+	}
+
+}
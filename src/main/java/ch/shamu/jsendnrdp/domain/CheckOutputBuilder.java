@@ -0,0 +1,393 @@
+package ch.shamu.jsendnrdp.domain;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Builds the message of a check result in the Nagios plugin output format : a one line output, performance data and long output.
+ *
+ * <pre>
+ * DISK OK - 12.5 GB free | /var=87.5%;90;95;0;100 inodes=1204
+ * first line of long output
+ * second line of long output
+ * </pre>
+ *
+ * Numbers are formatted in fixed point (never in scientific notation, which Nagios doesn't parse) straight into the builder's buffers, so
+ * that building a message only allocates the final string. A builder is meant to be {@link #reset()} and reused by one thread.
+ * <p>
+ * The message never exceeds the maximum output length (in UTF-8 bytes), Nagios truncating longer outputs after they have been encoded and
+ * sent. The output comes first, then the performance data (whole entries only, the last ones are dropped), then the long output.
+ * <p>
+ * The output, the long output and the performance data labels must not contain '|', which separates the performance data, and the output
+ * and the labels must fit on one line. The units and threshold ranges of the performance data must not contain spaces, ';' or '|', which
+ * separate the entries and their fields. Such text is rejected with an IllegalArgumentException, the builder is left unchanged.
+ */
+public class CheckOutputBuilder {
+
+	/**
+	 * MAX_PLUGIN_OUTPUT_LENGTH of Nagios 4
+	 */
+	public final static int DEFAULT_MAX_OUTPUT_LENGTH = 8192;
+
+	private final static int MAX_DECIMALS = 6;
+	private final static double MAX_FIXED_POINT = 1e12; // keeps the scaled value within a long
+	private final static double MAX_LONG = 0x1p63;
+	private final static long[] POWERS_OF_TEN = { 1, 10, 100, 1000, 10000, 100000, 1000000 };
+	private final static String PERF_DATA_SEPARATOR = " | ";
+
+	private final int maxOutputLength;
+	private final StringBuilder output = new StringBuilder(64);
+	private final StringBuilder longOutput = new StringBuilder();
+	private final StringBuilder perfData = new StringBuilder();
+	private int[] perfDataEnds = new int[8]; // in bytes, end of each entry
+	private int perfDataCount;
+	private int perfDataBytes;
+	private final StringBuilder message = new StringBuilder(128);
+	private boolean truncated;
+
+	public CheckOutputBuilder() {
+		this(DEFAULT_MAX_OUTPUT_LENGTH);
+	}
+
+	/**
+	 * @param maxOutputLength is the maximum length of the message, in UTF-8 bytes
+	 */
+	public CheckOutputBuilder(int maxOutputLength) {
+		if (maxOutputLength <= 0) {
+			throw new IllegalArgumentException("The maximum output length must be positive : " + maxOutputLength);
+		}
+		this.maxOutputLength = maxOutputLength;
+	}
+
+	public CheckOutputBuilder output(CharSequence text) {
+		checkText(text, true, "output");
+		output.append(text);
+		return this;
+	}
+
+	public CheckOutputBuilder output(long value) {
+		output.append(value);
+		return this;
+	}
+
+	/**
+	 * @param decimals is the maximum number of decimals (up to 6), trailing zeros are omitted
+	 */
+	public CheckOutputBuilder output(double value, int decimals) {
+		appendDecimal(output, value, decimals);
+		return this;
+	}
+
+	/**
+	 * Append a line to the long output
+	 */
+	public CheckOutputBuilder longOutput(CharSequence line) {
+		checkText(line, false, "long output");
+		if (longOutput.length() > 0) {
+			longOutput.append('\n');
+		}
+		longOutput.append(line);
+		return this;
+	}
+
+	public CheckOutputBuilder perfData(CharSequence label, double value, String uom) {
+		return perfData(label, value, uom, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+	}
+
+	/**
+	 * Append a performance data entry, <code>'label'=value[UOM];[warn];[crit];[min];[max]</code>
+	 *
+	 * @param value is the measured value, NaN or infinite values are sent as undetermined (U)
+	 * @param uom   is the unit of measurement (s, ms, us, %, B, KB, MB, TB, c), null if none
+	 * @param warn  is the warning threshold, NaN if none
+	 * @param crit  is the critical threshold, NaN if none
+	 * @param min   is the minimum value, NaN if none
+	 * @param max   is the maximum value, NaN if none
+	 */
+	public CheckOutputBuilder perfData(CharSequence label, double value, String uom, double warn, double crit, double min, double max) {
+		int start = startPerfData(label, value, uom);
+		perfData.append(';');
+		appendLimit(warn);
+		perfData.append(';');
+		appendLimit(crit);
+		perfData.append(';');
+		appendLimit(min);
+		perfData.append(';');
+		appendLimit(max);
+		endPerfData(start);
+		return this;
+	}
+
+	/**
+	 * Append a performance data entry with threshold ranges, for example "10:20", "~:10" or "@5:10"
+	 *
+	 * @param warn is the warning range, null if none
+	 * @param crit is the critical range, null if none
+	 * @param min  is the minimum value, NaN if none
+	 * @param max  is the maximum value, NaN if none
+	 */
+	public CheckOutputBuilder perfData(CharSequence label, double value, String uom, String warn, String crit, double min, double max) {
+		checkPerfDataField(warn, "warning range");
+		checkPerfDataField(crit, "critical range");
+		int start = startPerfData(label, value, uom);
+		perfData.append(';');
+		if (warn != null) {
+			perfData.append(warn);
+		}
+		perfData.append(';');
+		if (crit != null) {
+			perfData.append(crit);
+		}
+		perfData.append(';');
+		appendLimit(min);
+		perfData.append(';');
+		appendLimit(max);
+		endPerfData(start);
+		return this;
+	}
+
+	private int startPerfData(CharSequence label, double value, String uom) {
+		if (label.length() == 0) {
+			throw new IllegalArgumentException("The performance data label can't be empty");
+		}
+		checkText(label, true, "performance data label");
+		checkPerfDataField(uom, "unit of measurement");
+		int start = perfData.length();
+		if (start > 0) {
+			perfData.append(' ');
+		}
+		appendLabel(label);
+		perfData.append('=');
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			perfData.append('U');
+		}
+		else {
+			appendDecimal(perfData, value, MAX_DECIMALS);
+			if (uom != null) {
+				perfData.append(uom);
+			}
+		}
+		return start;
+	}
+
+	private void endPerfData(int start) {
+		int end = perfData.length();
+		while (perfData.charAt(end - 1) == ';') { // trailing empty fields can be omitted
+			end--;
+		}
+		perfData.setLength(end);
+		if (perfDataCount == perfDataEnds.length) {
+			perfDataEnds = Arrays.copyOf(perfDataEnds, perfDataCount * 2);
+		}
+		perfDataBytes += utf8Length(perfData, start, end);
+		perfDataEnds[perfDataCount++] = perfDataBytes;
+	}
+
+	private static void checkText(CharSequence text, boolean singleLine, String what) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '|') {
+				throw new IllegalArgumentException("The " + what + " can't contain '|', which separates the performance data : " + text);
+			}
+			if (singleLine && (c == '\n' || c == '\r')) {
+				throw new IllegalArgumentException("The " + what + " must fit on one line : " + text);
+			}
+		}
+	}
+
+	private static void checkPerfDataField(String field, String what) {
+		if (field == null) {
+			return;
+		}
+		for (int i = 0; i < field.length(); i++) {
+			char c = field.charAt(i);
+			if (c == ' ' || c == ';' || c == '|' || c == '\n' || c == '\r') {
+				throw new IllegalArgumentException("The " + what + " can't contain spaces, ';', '|' or line breaks : " + field);
+			}
+		}
+	}
+
+	private void appendLabel(CharSequence label) {
+		boolean quoted = false;
+		for (int i = 0; i < label.length() && !quoted; i++) {
+			char c = label.charAt(i);
+			quoted = c == ' ' || c == '=' || c == '\'';
+		}
+		if (!quoted) {
+			perfData.append(label);
+			return;
+		}
+		perfData.append('\'');
+		for (int i = 0; i < label.length(); i++) {
+			char c = label.charAt(i);
+			if (c == '\'') {
+				perfData.append('\''); // single quotes are doubled
+			}
+			perfData.append(c);
+		}
+		perfData.append('\'');
+	}
+
+	private void appendLimit(double limit) {
+		if (!Double.isNaN(limit) && !Double.isInfinite(limit)) {
+			appendDecimal(perfData, limit, MAX_DECIMALS);
+		}
+	}
+
+	/**
+	 * Append a number in fixed point, rounded to the given number of decimals, without trailing zeros
+	 */
+	static void appendDecimal(StringBuilder b, double value, int decimals) {
+		if (decimals < 0 || decimals > MAX_DECIMALS) {
+			throw new IllegalArgumentException("The number of decimals must be between 0 and " + MAX_DECIMALS + " : " + decimals);
+		}
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			b.append(value);
+			return;
+		}
+		double magnitude = Math.abs(value);
+		if (magnitude >= MAX_FIXED_POINT) { // no decimal worth sending at this magnitude
+			if (magnitude < MAX_LONG) {
+				b.append((long) value);
+			}
+			else { // rare enough to allocate, a cast would saturate
+				b.append(BigDecimal.valueOf(value).toPlainString());
+			}
+			return;
+		}
+		long scale = POWERS_OF_TEN[decimals];
+		long scaled = Math.round(magnitude * scale);
+		if (scaled == 0) {
+			b.append('0'); // not -0
+			return;
+		}
+		if (value < 0) {
+			b.append('-');
+		}
+		b.append(scaled / scale);
+		long fraction = scaled % scale;
+		if (fraction == 0) {
+			return;
+		}
+		int digits = decimals;
+		while (fraction % 10 == 0) {
+			fraction /= 10;
+			digits--;
+		}
+		b.append('.');
+		for (int i = digits - 1; i >= 0; i--) {
+			b.append((char) ('0' + fraction / POWERS_OF_TEN[i] % 10));
+		}
+	}
+
+	/**
+	 * @return the message, within the maximum output length
+	 */
+	public String message() {
+		message.setLength(0);
+		truncated = false;
+		int budget = maxOutputLength;
+
+		int outputEnd = fit(output, 0, output.length(), budget);
+		message.append(output, 0, outputEnd);
+		budget -= utf8Length(output, 0, outputEnd);
+		truncated = outputEnd < output.length();
+
+		int entries = perfDataCount;
+		while (entries > 0 && PERF_DATA_SEPARATOR.length() + perfDataEnds[entries - 1] > budget) {
+			entries--;
+		}
+		if (entries > 0) {
+			int perfDataEnd = fit(perfData, 0, perfData.length(), perfDataEnds[entries - 1]);
+			message.append(PERF_DATA_SEPARATOR).append(perfData, 0, perfDataEnd);
+			budget -= PERF_DATA_SEPARATOR.length() + perfDataEnds[entries - 1];
+		}
+		truncated |= entries < perfDataCount;
+
+		if (longOutput.length() > 0) {
+			int longOutputEnd = budget > 1 ? fit(longOutput, 0, longOutput.length(), budget - 1) : 0;
+			if (longOutputEnd > 0) {
+				message.append('\n').append(longOutput, 0, longOutputEnd);
+			}
+			truncated |= longOutputEnd < longOutput.length();
+		}
+		return message.toString();
+	}
+
+	/**
+	 * @return a check result whose message is built from the output, performance data and long output
+	 */
+	public NagiosCheckResult build(String host, String service, State state) {
+		return new NagiosCheckResult(host, service, state, message());
+	}
+
+	/**
+	 * @return true if the last message built had to be truncated to fit in the maximum output length
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	public int getMaxOutputLength() {
+		return maxOutputLength;
+	}
+
+	/**
+	 * Clear the output, performance data and long output, so that the builder can be reused
+	 */
+	public CheckOutputBuilder reset() {
+		output.setLength(0);
+		longOutput.setLength(0);
+		perfData.setLength(0);
+		perfDataCount = 0;
+		perfDataBytes = 0;
+		truncated = false;
+		return this;
+	}
+
+	/**
+	 * @return the end of the longest prefix of text[start, end[ which fits in maxBytes, surrogate pairs are never split
+	 */
+	private static int fit(CharSequence text, int start, int end, int maxBytes) {
+		int bytes = 0;
+		int i = start;
+		while (i < end) {
+			char c = text.charAt(i);
+			int length = 1;
+			int charBytes;
+			if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+				length = 2;
+				charBytes = 4;
+			}
+			else {
+				charBytes = utf8Length(c);
+			}
+			if (bytes + charBytes > maxBytes) {
+				break;
+			}
+			bytes += charBytes;
+			i += length;
+		}
+		return i;
+	}
+
+	private static int utf8Length(CharSequence text, int start, int end) {
+		int bytes = 0;
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+				bytes += 4;
+				i++;
+			}
+			else {
+				bytes += utf8Length(c);
+			}
+		}
+		return bytes;
+	}
+
+	private static int utf8Length(char c) {
+		return c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+	}
+}
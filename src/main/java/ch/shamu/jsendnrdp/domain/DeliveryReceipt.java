@@ -0,0 +1,117 @@
+package ch.shamu.jsendnrdp.domain;
+
+import java.util.Collection;
+
+/**
+ * <p>
+ * Receipt of the delivery of a batch of check results to Nagios, in one request.
+ * <p>
+ * Timestamps come from {@link System#nanoTime()} : they are monotonic and only meaningful relative to each other.
+ */
+public class DeliveryReceipt {
+
+	private final Collection<NagiosCheckResult> results;
+	private final long batchId;
+	private final String endpoint;
+	private final int attempts;
+	private final long enqueuedAt;
+	private final long dequeuedAt;
+	private final long throttleReleasedAt;
+	private final long requestStartedAt;
+	private final long respondedAt;
+
+	/**
+	 * @param results is the batch of results delivered
+	 * @param batchId is the unique id of the batch
+	 * @param endpoint is the endpoint the results were delivered to (the NRDP url for example), null if unknown
+	 * @param attempts is the number of requests it took to deliver the results
+	 * @param enqueuedAt is when the batch was queued
+	 * @param dequeuedAt is when a worker thread picked the batch up
+	 * @param throttleReleasedAt is when throttling allowed the batch to be sent
+	 * @param requestStartedAt is when the first request started
+	 * @param respondedAt is when the last response was received
+	 */
+	public DeliveryReceipt(Collection<NagiosCheckResult> results, long batchId, String endpoint, int attempts, long enqueuedAt, long dequeuedAt,
+			long throttleReleasedAt, long requestStartedAt, long respondedAt) {
+		this.results = results;
+		this.batchId = batchId;
+		this.endpoint = endpoint;
+		this.attempts = attempts;
+		this.enqueuedAt = enqueuedAt;
+		this.dequeuedAt = dequeuedAt;
+		this.throttleReleasedAt = throttleReleasedAt;
+		this.requestStartedAt = requestStartedAt;
+		this.respondedAt = respondedAt;
+	}
+
+	public Collection<NagiosCheckResult> getResults() {
+		return results;
+	}
+
+	public long getBatchId() {
+		return batchId;
+	}
+
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public long getEnqueuedAt() {
+		return enqueuedAt;
+	}
+
+	public long getDequeuedAt() {
+		return dequeuedAt;
+	}
+
+	public long getThrottleReleasedAt() {
+		return throttleReleasedAt;
+	}
+
+	public long getRequestStartedAt() {
+		return requestStartedAt;
+	}
+
+	public long getRespondedAt() {
+		return respondedAt;
+	}
+
+	/**
+	 * @return the time spent in the queue, in nanoseconds
+	 */
+	public long getQueueNanos() {
+		return dequeuedAt - enqueuedAt;
+	}
+
+	/**
+	 * @return the time spent waiting on throttling, in nanoseconds
+	 */
+	public long getThrottleNanos() {
+		return throttleReleasedAt - dequeuedAt;
+	}
+
+	/**
+	 * @return the time spent sending the request(s) and waiting for the response(s), in nanoseconds
+	 */
+	public long getRequestNanos() {
+		return respondedAt - requestStartedAt;
+	}
+
+	/**
+	 * @return the time between queueing the batch and receiving the response, in nanoseconds
+	 */
+	public long getTotalNanos() {
+		return respondedAt - enqueuedAt;
+	}
+
+	@Override
+	public String toString() {
+		return "{batch:" + batchId + ",endpoint:" + endpoint + ",attempts:" + attempts + ",results:" + results.size() + ",queue:"
+				+ getQueueNanos() / 1000 + "us,throttle:" + getThrottleNanos() / 1000 + "us,request:" + getRequestNanos() / 1000 + "us}";
+	}
+
+}
@@ -2,15 +2,42 @@ package ch.shamu.jsendnrdp.domain;
 
 public enum State {
 
-	OK(0), WARNING(1), CRITICAL(2), UNKNOWN(3);
+	OK(0, 0), WARNING(1, 1), CRITICAL(2, 3), UNKNOWN(3, 2);
 
 	private final int code; // the nagios specific code for this state
+	private final int severity; // OK < WARNING < UNKNOWN < CRITICAL
 
-	State(int code) {
+	State(int code, int severity) {
 		this.code = code;
+		this.severity = severity;
 	}
 
 	public int getCode() {
 		return code;
 	}
+
+	public int getSeverity() {
+		return severity;
+	}
+
+	/**
+	 * @param code is a nagios specific state code
+	 * @return the state with the given code
+	 * @throws IllegalArgumentException if no state has this code
+	 */
+	public static State fromCode(int code) {
+		for (State state : values()) {
+			if (state.code == code) {
+				return state;
+			}
+		}
+		throw new IllegalArgumentException("Unknown nagios state code : " + code);
+	}
+
+	/**
+	 * @return the most severe of the two states
+	 */
+	public static State worst(State a, State b) {
+		return a.severity >= b.severity ? a : b;
+	}
 }
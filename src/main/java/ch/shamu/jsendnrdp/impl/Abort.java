@@ -0,0 +1,39 @@
+package ch.shamu.jsendnrdp.impl;
+
+/**
+ * Lets another thread abort a request being sent, for example the losing request of a hedged pair (see {@link HedgingNagiosCheckSender}).
+ * The sender registers how to abort its request, such as closing its connection.
+ */
+final class Abort {
+
+	private boolean aborted;
+	private Runnable action;
+
+	/**
+	 * @param action aborts the request, it is run right away if the request has already been aborted
+	 */
+	void onAbort(Runnable action) {
+		synchronized (this) {
+			if (!aborted) {
+				this.action = action;
+				return;
+			}
+		}
+		action.run();
+	}
+
+	void abort() {
+		Runnable action;
+		synchronized (this) {
+			if (aborted) {
+				return;
+			}
+			aborted = true;
+			action = this.action;
+			this.action = null;
+		}
+		if (action != null) {
+			action.run();
+		}
+	}
+}
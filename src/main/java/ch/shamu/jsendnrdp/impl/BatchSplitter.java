@@ -0,0 +1,99 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+
+/**
+ * Splits check results into batches small enough to be sent in one NRDP request, according to a maximum number of results and a maximum
+ * url encoded size of the XML document (0 means no limit).
+ */
+class BatchSplitter {
+
+	private final static Logger logger = LoggerFactory.getLogger(BatchSplitter.class);
+
+	final static BatchSplitter UNLIMITED = new BatchSplitter(0, 0);
+
+	private final int maxResults;
+	private final int maxBytes;
+
+	BatchSplitter(int maxResults, int maxBytes) {
+		this.maxResults = maxResults;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return a splitter applying the strictest of these limits and the given ones (0 means no limit)
+	 */
+	BatchSplitter tightenedTo(int maxResults, int maxBytes) {
+		return new BatchSplitter(min(this.maxResults, maxResults), min(this.maxBytes, maxBytes));
+	}
+
+	private static int min(int limit, int other) {
+		if (limit <= 0) {
+			return other;
+		}
+		return other <= 0 ? limit : Math.min(limit, other);
+	}
+
+	/**
+	 * @return true if the results can be sent in one request, without computing their encoded size
+	 */
+	boolean fitsWithoutSizing(Collection<NagiosCheckResult> results) {
+		return maxBytes <= 0 && (maxResults <= 0 || results.size() <= maxResults);
+	}
+
+	boolean isUnlimited() {
+		return maxResults <= 0 && maxBytes <= 0;
+	}
+
+	/**
+	 * @return the given results if they fit in one request, or the batches to send otherwise
+	 */
+	List<Collection<NagiosCheckResult>> split(Collection<NagiosCheckResult> results) {
+		if (fitsWithoutSizing(results)) {
+			return Collections.singletonList(results);
+		}
+		List<Collection<NagiosCheckResult>> batches = new ArrayList<Collection<NagiosCheckResult>>();
+		List<NagiosCheckResult> batch = new ArrayList<NagiosCheckResult>();
+		long batchBytes = CheckResultXml.ENVELOPE_ENCODED_SIZE;
+		for (NagiosCheckResult r : results) {
+			int size = sizeOf(r);
+			if (!batch.isEmpty() && isFull(batch.size(), batchBytes, size)) {
+				batches.add(batch);
+				batch = new ArrayList<NagiosCheckResult>();
+				batchBytes = CheckResultXml.ENVELOPE_ENCODED_SIZE;
+			}
+			batch.add(r);
+			batchBytes += size;
+		}
+		if (!batch.isEmpty()) {
+			batches.add(batch);
+		}
+		if (batches.size() == 1) {
+			return Collections.singletonList(results);
+		}
+		logger.debug("{} check results split into {} requests", results.size(), batches.size());
+		return batches;
+	}
+
+	/**
+	 * @return the encoded size of the given result if it matters to this splitter, 0 otherwise
+	 */
+	int sizeOf(NagiosCheckResult r) {
+		return maxBytes > 0 ? CheckResultXml.encodedSize(r) : 0;
+	}
+
+	/**
+	 * @return true if a result of the given encoded size can't be added to a batch of the given number of results and encoded size
+	 */
+	boolean isFull(int batchResults, long batchBytes, int nextResultBytes) {
+		return (maxResults > 0 && batchResults >= maxResults) || (maxBytes > 0 && batchBytes + nextResultBytes > maxBytes);
+	}
+}
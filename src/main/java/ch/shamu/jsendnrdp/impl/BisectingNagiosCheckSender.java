@@ -0,0 +1,183 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.shamu.jsendnrdp.NRDPException;
+import ch.shamu.jsendnrdp.NRDPRejectionException;
+import ch.shamu.jsendnrdp.NagiosCheckSender;
+import ch.shamu.jsendnrdp.RejectedResultsException;
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+
+/**
+ * <p>
+ * Decorator isolating the "poison" results of a batch rejected by the NRDP server (unknown host, malformed output, ...).
+ * <p>
+ * When the server rejects a batch, it is recursively split in halves and resent, until the offending results are isolated. Good results are
+ * delivered and a {@link RejectedResultsException} listing the rejected ones is thrown. Isolating k poison results in a batch of n costs
+ * about 2k.log2(n) extra requests, this number is capped by maxExtraRequests : once the budget is spent, the remaining suspect results are
+ * rejected without further splitting.
+ * <p>
+ * Only {@link NRDPRejectionException}s trigger the bisection : server wide failures (bad token, error page, ...) and I/O errors are not
+ * caused by the content of the batch and bubble up as is. If such a failure interrupts the bisection, a {@link RejectedResultsException}
+ * caused by it gives the results delivered so far, the others are listed as rejected.
+ * <p>
+ * When given to a {@link NonBlockingNagiosCheckSender}, the extra requests are throttled like the first one, by the last non blocking
+ * sender it was given to.
+ */
+public class BisectingNagiosCheckSender implements NagiosCheckSender {
+
+	private final static Logger logger = LoggerFactory.getLogger(BisectingNagiosCheckSender.class);
+
+	private final NagiosCheckSender sender;
+	private final int maxExtraRequests;
+	private final AtomicLong poisonResultsFound = new AtomicLong();
+	private final AtomicLong extraRequests = new AtomicLong();
+	private volatile Consumer<Collection<NagiosCheckResult>> extraRequestThrottle = batch -> {
+	};
+
+	/**
+	 * @param sender           is the sender used to submit the batches and their halves
+	 * @param maxExtraRequests is the maximum number of additional requests sent to isolate the poison results of one rejected batch
+	 */
+	public BisectingNagiosCheckSender(NagiosCheckSender sender, int maxExtraRequests) {
+		this.sender = sender;
+		this.maxExtraRequests = maxExtraRequests;
+	}
+
+	public void send(Collection<NagiosCheckResult> checkResults) throws NRDPException, IOException {
+		deliver(checkResults);
+	}
+
+	/**
+	 * Same as send, telling where the results were delivered and in how many requests
+	 */
+	Delivery deliver(Collection<NagiosCheckResult> checkResults) throws NRDPException, IOException {
+		try {
+			return Delivery.send(sender, checkResults);
+		}
+		catch (RejectedResultsException e) {
+			throw e; // already isolated by a nested sender
+		}
+		catch (NRDPRejectionException e) {
+			List<NagiosCheckResult> delivered = new ArrayList<NagiosCheckResult>();
+			List<NagiosCheckResult> rejected = new ArrayList<NagiosCheckResult>();
+			Bisection bisection = new Bisection(delivered, rejected);
+			try {
+				bisection.bisect(new ArrayList<NagiosCheckResult>(checkResults), e);
+			}
+			catch (NRDPException | IOException interruption) {
+				List<NagiosCheckResult> undelivered = new ArrayList<NagiosCheckResult>(rejected);
+				Set<NagiosCheckResult> done = Collections.newSetFromMap(new IdentityHashMap<NagiosCheckResult, Boolean>());
+				done.addAll(delivered);
+				done.addAll(rejected);
+				for (NagiosCheckResult r : checkResults) {
+					if (!done.contains(r)) {
+						undelivered.add(r);
+					}
+				}
+				throw new RejectedResultsException(undelivered.size() + " of " + checkResults.size()
+						+ " check results were not delivered, the bisection was interrupted by : " + interruption.getMessage(), interruption,
+						undelivered, delivered);
+			}
+			if (!rejected.isEmpty()) {
+				throw new RejectedResultsException(rejected.size() + " of " + checkResults.size() + " check results were rejected by the NRDP server",
+						bisection.lastFailure, rejected, delivered);
+			}
+			logger.info("Rejected batch of {} check results was delivered after being split", checkResults.size());
+			return new Delivery(bisection.endpoint, 1 + bisection.requests);
+		}
+	}
+
+	/**
+	 * @param throttle waits, on the calling thread, for the permits needed by an extra request
+	 */
+	void throttleExtraRequests(Consumer<Collection<NagiosCheckResult>> throttle) {
+		this.extraRequestThrottle = throttle;
+	}
+
+	/**
+	 * @return the number of results isolated as poison since this sender was created
+	 */
+	public long getPoisonResultsFound() {
+		return poisonResultsFound.get();
+	}
+
+	/**
+	 * @return the number of additional requests sent to isolate poison results since this sender was created
+	 */
+	public long getExtraRequests() {
+		return extraRequests.get();
+	}
+
+	public void shutdown() {
+		sender.shutdown();
+	}
+
+	private class Bisection {
+
+		private final List<NagiosCheckResult> delivered;
+		private final List<NagiosCheckResult> rejected;
+		private int budget = maxExtraRequests;
+		private int requests;
+		private String endpoint;
+		private NRDPRejectionException lastFailure;
+
+		Bisection(List<NagiosCheckResult> delivered, List<NagiosCheckResult> rejected) {
+			this.delivered = delivered;
+			this.rejected = rejected;
+		}
+
+		void bisect(List<NagiosCheckResult> batch, NRDPRejectionException failure) throws NRDPException, IOException {
+			lastFailure = failure;
+			if (batch.size() == 1) {
+				NagiosCheckResult r = batch.get(0);
+				poisonResultsFound.incrementAndGet();
+				logger.warn("Nagios check result rejected by NRDP server {hostname:" + r.getHost() + ",servicename:" + r.getService() + "} : "
+						+ failure.getMessage());
+				rejected.addAll(batch);
+				return;
+			}
+			if (budget < 2) {
+				giveUp(batch);
+				return;
+			}
+			int middle = batch.size() / 2;
+			sendOrBisect(batch.subList(0, middle));
+			sendOrBisect(batch.subList(middle, batch.size()));
+		}
+
+		private void sendOrBisect(List<NagiosCheckResult> half) throws NRDPException, IOException {
+			if (budget == 0) { // spent while bisecting the other half
+				giveUp(half);
+				return;
+			}
+			budget--;
+			extraRequests.incrementAndGet();
+			extraRequestThrottle.accept(half);
+			requests++;
+			try {
+				endpoint = Delivery.send(sender, half).endpoint;
+				delivered.addAll(half);
+			}
+			catch (NRDPRejectionException e) {
+				bisect(half, e);
+			}
+		}
+
+		private void giveUp(List<NagiosCheckResult> suspects) {
+			logger.warn("Giving up isolating poison results, {} check results rejected without further splitting", suspects.size());
+			rejected.addAll(suspects);
+		}
+	}
+}
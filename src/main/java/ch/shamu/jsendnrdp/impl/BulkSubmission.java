@@ -0,0 +1,68 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.shamu.jsendnrdp.RejectedResultsException;
+import ch.shamu.jsendnrdp.domain.BulkSubmissionSummary;
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+
+/**
+ * Keeps track of the requests of a bulk submission, and completes its future once the last one is done
+ */
+class BulkSubmission {
+
+	private final static Logger logger = LoggerFactory.getLogger(BulkSubmission.class);
+
+	private final CompletableFuture<BulkSubmissionSummary> future = new CompletableFuture<BulkSubmissionSummary>();
+	private final AtomicInteger pending = new AtomicInteger(1); // the producer counts as pending until all requests are dispatched
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong delivered = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicReference<Throwable> firstFailure = new AtomicReference<Throwable>();
+
+	void requestDispatched() {
+		requests.incrementAndGet();
+		pending.incrementAndGet();
+	}
+
+	void requestDone(Collection<NagiosCheckResult> batch, Throwable failure) {
+		if (failure == null) {
+			delivered.addAndGet(batch.size());
+		}
+		else {
+			if (failure instanceof RejectedResultsException) {
+				RejectedResultsException rejection = (RejectedResultsException) failure;
+				delivered.addAndGet(rejection.getDeliveredResults().size());
+				failed.addAndGet(rejection.getRejectedResults().size());
+			}
+			else {
+				failed.addAndGet(batch.size());
+			}
+			if (firstFailure.compareAndSet(null, failure)) {
+				logger.error("Exception while sending nagios check results to NRDP server: ", failure);
+			}
+		}
+		done();
+	}
+
+	/**
+	 * Called by the producer once all the requests are dispatched, or if it failed
+	 */
+	CompletableFuture<BulkSubmissionSummary> dispatchDone() {
+		done();
+		return future;
+	}
+
+	private void done() {
+		if (pending.decrementAndGet() == 0) {
+			future.complete(new BulkSubmissionSummary(requests.get(), delivered.get(), failed.get(), firstFailure.get()));
+		}
+	}
+}
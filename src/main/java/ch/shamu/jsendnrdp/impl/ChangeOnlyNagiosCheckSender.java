@@ -0,0 +1,310 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.shamu.jsendnrdp.NRDPException;
+import ch.shamu.jsendnrdp.NagiosCheckSender;
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+
+/**
+ * <p>
+ * Stateful front end of a sender which only forwards the check results that changed : it remembers the last state and output sent for each
+ * (host, service) and drops identical results.
+ * <p>
+ * To keep Nagios passive check freshness alive, the last result of each service is sent again once its freshness interval has elapsed
+ * without any change. These refreshes are driven by a {@link HashedWheelTimer} (one timeout per service, whatever the number of services)
+ * and sent in one batch per tick, from the timer thread : the underlying sender should be a {@link NonBlockingNagiosCheckSender}.
+ * <p>
+ * Changes are detected under one lock, then handed over to the underlying sender outside of it, so that a slow synchronous sender doesn't
+ * hold back the callers sending other services. The results of one service are handed over in order : each hand over locks the stripes
+ * of its services, and a change or refresh is dropped if a newer result of its service was detected meanwhile, so that a refresh never
+ * overwrites a change. The underlying sender must keep the results of each service in order too : a synchronous sender does, a {@link NonBlockingNagiosCheckSender} with more than one thread needs ordered lanes (see
+ * {@link NonBlockingNagiosCheckSender#setOrderedLanes(int)}). When a {@link NonBlockingNagiosCheckSender} fails to send changes, they are
+ * forgotten as with a synchronous sender, and the failure is reported to its error handler.
+ */
+public class ChangeOnlyNagiosCheckSender implements NagiosCheckSender {
+
+	private final static Logger logger = LoggerFactory.getLogger(ChangeOnlyNagiosCheckSender.class);
+
+	private final static long TICK_MILLIS = 100;
+	private final static int TICKS_PER_WHEEL = 512;
+	private final static int SEND_STRIPES = 64;
+
+	private final NagiosCheckSender sender;
+	private final ToLongFunction<NagiosCheckResult> freshnessInterval;
+	private final ConcurrentMap<ServiceKey, LastSent> lastSent = new ConcurrentHashMap<ServiceKey, LastSent>();
+	private final HashedWheelTimer timer;
+	private final List<LastSent> dueRefreshes = new ArrayList<LastSent>(); // only accessed by the timer thread
+	private final Object changeLock = new Object(); // compares the results with the last ones sent
+	private final ReentrantLock[] sendStripes = new ReentrantLock[SEND_STRIPES]; // order the hand over of the results of each service
+	private final AtomicLong forwarded = new AtomicLong();
+	private final AtomicLong suppressed = new AtomicLong();
+	private final AtomicLong refreshed = new AtomicLong();
+
+	/**
+	 * @param sender            is the sender the changed results and refreshes are forwarded to
+	 * @param freshnessInterval is the delay after which an unchanged result is sent again (0 means never)
+	 */
+	public ChangeOnlyNagiosCheckSender(NagiosCheckSender sender, long freshnessInterval, TimeUnit unit) {
+		this(sender, r -> unit.toMillis(freshnessInterval));
+	}
+
+	/**
+	 * @param sender                  is the sender the changed results and refreshes are forwarded to
+	 * @param freshnessIntervalMillis gives the delay (in milliseconds) after which the unchanged result of a service is sent again (0 means
+	 *                                never). It is called with the first result of each service, and each time it changes.
+	 */
+	public ChangeOnlyNagiosCheckSender(NagiosCheckSender sender, ToLongFunction<NagiosCheckResult> freshnessIntervalMillis) {
+		this.sender = sender;
+		this.freshnessInterval = freshnessIntervalMillis;
+		this.timer = new HashedWheelTimer(TICK_MILLIS, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL, this::flushRefreshes, "nrdp-freshness");
+		for (int i = 0; i < SEND_STRIPES; i++) {
+			sendStripes[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Forward the results whose state or output changed since the last time they were sent
+	 */
+	public void send(Collection<NagiosCheckResult> checkResults) throws NRDPException, IOException {
+		List<LastSent> changed = new ArrayList<LastSent>(checkResults.size());
+		synchronized (changeLock) {
+			for (NagiosCheckResult r : checkResults) {
+				ServiceKey key = ServiceKey.of(r);
+				LastSent previous = lastSent.get(key);
+				if (previous != null && previous.isSameAs(r)) {
+					suppressed.incrementAndGet();
+					continue;
+				}
+				LastSent current = new LastSent(key, r, freshnessInterval.applyAsLong(r));
+				lastSent.put(key, current);
+				if (previous != null) {
+					previous.cancel();
+				}
+				current.scheduleRefresh(current.intervalMillis);
+				changed.add(current);
+			}
+		}
+		if (changed.isEmpty()) {
+			return;
+		}
+		int[] stripes = lockStripes(changed);
+		try {
+			List<LastSent> latest = latestOf(changed);
+			if (latest.isEmpty()) {
+				return;
+			}
+			try {
+				forward(resultsOf(latest), latest);
+			}
+			catch (NRDPException | IOException | RuntimeException e) {
+				forgetAll(latest);
+				throw e;
+			}
+		}
+		finally {
+			unlockStripes(stripes);
+		}
+	}
+
+	/**
+	 * Lock the stripes of the given services, in index order so that concurrent hand overs don't deadlock
+	 * @return the indexes of the locked stripes
+	 */
+	private int[] lockStripes(List<LastSent> results) {
+		BitSet stripes = new BitSet(SEND_STRIPES);
+		for (LastSent r : results) {
+			int hash = r.key.hashCode();
+			stripes.set((hash ^ hash >>> 16) & (SEND_STRIPES - 1));
+		}
+		int[] locked = stripes.stream().toArray();
+		for (int stripe : locked) {
+			sendStripes[stripe].lock();
+		}
+		return locked;
+	}
+
+	private void unlockStripes(int[] locked) {
+		for (int i = locked.length - 1; i >= 0; i--) {
+			sendStripes[locked[i]].unlock();
+		}
+	}
+
+	/**
+	 * @return the given results which were not superseded by a newer result of their service, nor forgotten
+	 */
+	private List<LastSent> latestOf(List<LastSent> results) {
+		List<LastSent> latest = new ArrayList<LastSent>(results.size());
+		for (LastSent r : results) {
+			if (lastSent.get(r.key) == r) {
+				latest.add(r);
+			}
+		}
+		return latest;
+	}
+
+	private static List<NagiosCheckResult> resultsOf(List<LastSent> sent) {
+		List<NagiosCheckResult> results = new ArrayList<NagiosCheckResult>(sent.size());
+		for (LastSent r : sent) {
+			results.add(r.result);
+		}
+		return results;
+	}
+
+	private void forward(final List<NagiosCheckResult> changes, final List<LastSent> changed) throws NRDPException, IOException {
+		if (!(sender instanceof NonBlockingNagiosCheckSender)) {
+			sender.send(changes);
+			forwarded.addAndGet(changes.size());
+			return;
+		}
+		final NonBlockingNagiosCheckSender nonBlockingSender = (NonBlockingNagiosCheckSender) sender;
+		nonBlockingSender.sendAsync(changes).whenComplete((sent, e) -> {
+			if (e == null) {
+				forwarded.addAndGet(changes.size());
+				return;
+			}
+			forgetAll(changed);
+			nonBlockingSender.sendFailed(changes, e instanceof CompletionException ? e.getCause() : e);
+		});
+	}
+
+	/**
+	 * Forget the given results unless newer ones were sent meanwhile, so that they are considered changed next time
+	 */
+	private void forgetAll(List<LastSent> changed) {
+		for (LastSent current : changed) {
+			if (lastSent.remove(current.key, current)) {
+				current.cancel();
+			}
+		}
+	}
+
+	/**
+	 * Stop tracking a service : its next result will be forwarded, and it won't be refreshed meanwhile
+	 */
+	public void forget(String host, String service) {
+		forget(new ServiceKey(host, service));
+	}
+
+	private void forget(ServiceKey key) {
+		LastSent removed = lastSent.remove(key);
+		if (removed != null) {
+			removed.cancel();
+		}
+	}
+
+	/**
+	 * @return the number of results forwarded because they changed
+	 */
+	public long getForwardedResults() {
+		return forwarded.get();
+	}
+
+	/**
+	 * @return the number of results dropped because they did not change
+	 */
+	public long getSuppressedResults() {
+		return suppressed.get();
+	}
+
+	/**
+	 * @return the number of unchanged results sent again to keep them fresh
+	 */
+	public long getRefreshedResults() {
+		return refreshed.get();
+	}
+
+	public void shutdown() {
+		timer.stop();
+		sender.shutdown();
+	}
+
+	private void flushRefreshes() {
+		if (dueRefreshes.isEmpty()) {
+			return;
+		}
+		List<LastSent> due = latestOf(dueRefreshes); // not superseded since they were due
+		dueRefreshes.clear();
+		if (due.isEmpty()) {
+			return;
+		}
+		int[] stripes = lockStripes(due);
+		try {
+			List<LastSent> latest = latestOf(due);
+			if (latest.isEmpty()) {
+				return;
+			}
+			sender.send(resultsOf(latest));
+			refreshed.addAndGet(latest.size());
+		}
+		catch (Exception e) {
+			logger.error("Exception while refreshing nagios check results : ", e);
+		}
+		finally {
+			unlockStripes(stripes);
+		}
+	}
+
+	/**
+	 * The last result sent for a service, and its refresh timeout
+	 */
+	private class LastSent implements Runnable {
+
+		private final ServiceKey key;
+		private final NagiosCheckResult result;
+		private final long intervalMillis;
+		private volatile HashedWheelTimer.Timeout timeout;
+
+		LastSent(ServiceKey key, NagiosCheckResult result, long intervalMillis) {
+			this.key = key;
+			this.result = result;
+			this.intervalMillis = intervalMillis;
+		}
+
+		boolean isSameAs(NagiosCheckResult r) {
+			return result.getState() == r.getState() && equals(result.getMessage(), r.getMessage());
+		}
+
+		private boolean equals(String a, String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+
+		void scheduleRefresh(long delayMillis) {
+			if (intervalMillis > 0) {
+				timeout = timer.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		void cancel() {
+			HashedWheelTimer.Timeout t = timeout;
+			if (t != null) {
+				t.cancel();
+			}
+		}
+
+		/**
+		 * Refresh timeout, runs on the timer thread
+		 */
+		public void run() {
+			if (lastSent.get(key) != this) {
+				return; // changed or forgotten meanwhile
+			}
+			dueRefreshes.add(this);
+			scheduleRefresh(intervalMillis);
+		}
+	}
+}
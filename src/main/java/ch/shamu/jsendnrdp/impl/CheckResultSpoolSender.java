@@ -0,0 +1,195 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.shamu.jsendnrdp.NRDPException;
+import ch.shamu.jsendnrdp.NagiosCheckSender;
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+
+/**
+ * <p>
+ * Sender for applications running on the Nagios host itself : check results are written directly in the Nagios check result spool
+ * directory (check_result_path in nagios.cfg), without going through NRDP and the web server.
+ * <p>
+ * Results are written to a temporary file which is atomically renamed to a "cXXXXXX" name once complete, then the ".ok" marker file Nagios
+ * waits for is created. Many results are written per file. The directory must be on a file system supporting atomic renames.
+ */
+public class CheckResultSpoolSender implements NagiosCheckSender {
+
+	private final static Logger logger = LoggerFactory.getLogger(CheckResultSpoolSender.class);
+
+	private final static String NAME_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+	private final static String OK_SUFFIX = ".ok";
+
+	private final Path checkResultDirectory;
+	private final int maxResultsPerFile;
+
+	/**
+	 * @param checkResultDirectory is the Nagios check result spool directory, for example /usr/local/nagios/var/spool/checkresults
+	 * @param maxResultsPerFile    is the maximum number of check results written in one file
+	 */
+	public CheckResultSpoolSender(Path checkResultDirectory, int maxResultsPerFile) {
+		this.checkResultDirectory = checkResultDirectory;
+		this.maxResultsPerFile = maxResultsPerFile;
+		if (!Files.isDirectory(checkResultDirectory) || !Files.isWritable(checkResultDirectory)) {
+			logger.warn("Nagios check result directory " + checkResultDirectory + " does not exist or is not writable");
+		}
+		logger.info("Nagios check result directory : " + checkResultDirectory);
+	}
+
+	public void send(Collection<NagiosCheckResult> checkResults) throws NRDPException, IOException {
+		List<NagiosCheckResult> batch = new ArrayList<NagiosCheckResult>(Math.min(maxResultsPerFile, checkResults.size()));
+		for (NagiosCheckResult r : checkResults) {
+			batch.add(r);
+			if (batch.size() == maxResultsPerFile) {
+				writeFile(batch);
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty()) {
+			writeFile(batch);
+		}
+		logger.info(checkResults.size() + " check results succesfully written to " + checkResultDirectory);
+	}
+
+	private void writeFile(List<NagiosCheckResult> results) throws IOException {
+		// the temporary name starts with a '.', so Nagios ignores the file until it is renamed
+		Path temporary = Files.createTempFile(checkResultDirectory, ".nrdp", ".tmp");
+		Path target = null;
+		try {
+			long now = System.currentTimeMillis();
+			try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+				writer.write("### NRDP Check Result File ###\n");
+				writer.write("file_time=" + now / 1000 + "\n\n");
+				for (NagiosCheckResult r : results) {
+					write(writer, r, now);
+				}
+			}
+			makeReadableByNagios(temporary);
+			target = claimFileName();
+			Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			markReady(target);
+			logger.debug("{} check results written to {}", results.size(), target);
+		}
+		catch (IOException | RuntimeException e) {
+			deleteAfterFailure(temporary, e);
+			if (target != null) { // the empty placeholder, or a result file which Nagios would never read without its ".ok" file
+				deleteAfterFailure(target, e);
+			}
+			throw e;
+		}
+	}
+
+	private static void deleteAfterFailure(Path file, Exception failure) {
+		try {
+			Files.deleteIfExists(file);
+		}
+		catch (IOException e) {
+			failure.addSuppressed(e);
+		}
+	}
+
+	private void write(Writer writer, NagiosCheckResult r, long now) throws IOException {
+		String time = now / 1000 + "." + String.format("%06d", (now % 1000) * 1000);
+		writer.write("host_name=" + singleLine(r.getHost()) + "\n");
+		writer.write("service_description=" + singleLine(r.getService()) + "\n");
+		writer.write("check_type=" + NagiosCheckResult.PASSIVE_CHECK_TYPE + "\n");
+		writer.write("check_options=0\n");
+		writer.write("scheduled_check=0\n");
+		writer.write("reschedule_check=0\n");
+		writer.write("latency=0.000000\n");
+		writer.write("start_time=" + time + "\n");
+		writer.write("finish_time=" + time + "\n");
+		writer.write("early_timeout=0\n");
+		writer.write("exited_ok=1\n");
+		writer.write("return_code=" + r.getState().getCode() + "\n");
+		writer.write("output=" + escapeOutput(r.getMessage()) + "\n\n");
+	}
+
+	/**
+	 * Reserve a unique "cXXXXXX" file name (the pattern Nagios looks for) by creating an empty file, which is ignored until its ".ok" file
+	 * exists
+	 */
+	Path claimFileName() throws IOException {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		while (true) {
+			StringBuilder name = new StringBuilder("c");
+			for (int i = 0; i < 6; i++) {
+				name.append(NAME_CHARS.charAt(random.nextInt(NAME_CHARS.length())));
+			}
+			Path target = checkResultDirectory.resolve(name.toString());
+			try {
+				return Files.createFile(target);
+			}
+			catch (FileAlreadyExistsException e) {
+				// try another name
+			}
+		}
+	}
+
+	/**
+	 * Create the ".ok" file telling Nagios the result file is complete
+	 */
+	void markReady(Path resultFile) throws IOException {
+		Files.createFile(resultFile.resolveSibling(resultFile.getFileName() + OK_SUFFIX));
+	}
+
+	private void makeReadableByNagios(Path file) throws IOException {
+		if (Files.getFileAttributeView(file, PosixFileAttributeView.class) != null) {
+			Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-r--r--"));
+		}
+	}
+
+	private static String singleLine(String value) {
+		return value == null ? "" : value.replace('\n', ' ').replace('\r', ' ');
+	}
+
+	/**
+	 * Nagios reads the output on a single line, and unescapes "\n" and "\\"
+	 */
+	private static String escapeOutput(String output) {
+		if (output == null) {
+			return "";
+		}
+		StringBuilder b = new StringBuilder(output.length());
+		for (int i = 0; i < output.length(); i++) {
+			char c = output.charAt(i);
+			switch (c) {
+			case '\\':
+				b.append("\\\\");
+				break;
+			case '\n':
+				b.append("\\n");
+				break;
+			case '\r':
+				break;
+			default:
+				b.append(c);
+			}
+		}
+		return b.toString();
+	}
+
+	Path getCheckResultDirectory() {
+		return checkResultDirectory;
+	}
+
+	public void shutdown() {
+		// nothing to dispose of
+	}
+}
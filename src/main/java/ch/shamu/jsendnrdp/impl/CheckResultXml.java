@@ -0,0 +1,138 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.util.Collection;
+
+import org.apache.commons.lang.StringEscapeUtils;
+
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+
+/**
+ * <p>
+ * XML encoding of check results, as expected by the NRDP "submitcheck" command.
+ * <p>
+ * Also computes the number of bytes a result adds to the (url encoded) body of the POST request, without encoding it. This mirrors the
+ * escaping done by {@link StringEscapeUtils#escapeXml(String)} (named entities for the 5 XML special characters, numeric entities for
+ * non-ASCII characters) followed by the form url encoding of {@link org.apache.http.client.entity.UrlEncodedFormEntity}.
+ */
+final class CheckResultXml {
+
+	private final static String HEADER = "<?xml version='1.0'?>\n  <checkresults>\n";
+	private final static String FOOTER = "  </checkresults>\n";
+	private final static String RESULT_START = "    <checkresult type='service' checktype='" + NagiosCheckResult.PASSIVE_CHECK_TYPE + "'>\n";
+	private final static String HOSTNAME_START = "      <hostname>";
+	private final static String HOSTNAME_END = "</hostname>\n";
+	private final static String SERVICENAME_START = "      <servicename>";
+	private final static String SERVICENAME_END = "</servicename>\n";
+	private final static String STATE_START = "      <state>";
+	private final static String STATE_END = "</state>\n";
+	private final static String OUTPUT_START = "      <output>";
+	private final static String OUTPUT_END = "</output>\n";
+	private final static String RESULT_END = "    </checkresult>\n";
+
+	/**
+	 * url encoded size of the XML document without any check result
+	 */
+	final static int ENVELOPE_ENCODED_SIZE = formEncodedSize(HEADER) + formEncodedSize(FOOTER);
+
+	private final static int RESULT_TEMPLATE_ENCODED_SIZE = formEncodedSize(RESULT_START) + formEncodedSize(HOSTNAME_START)
+			+ formEncodedSize(HOSTNAME_END) + formEncodedSize(SERVICENAME_START) + formEncodedSize(SERVICENAME_END) + formEncodedSize(STATE_START)
+			+ formEncodedSize(STATE_END) + formEncodedSize(OUTPUT_START) + formEncodedSize(OUTPUT_END) + formEncodedSize(RESULT_END);
+
+	private CheckResultXml() {
+	}
+
+	/**
+	 * @return the XML document submitting the given results
+	 */
+	static String toXml(Collection<NagiosCheckResult> results) {
+		StringBuilder b = new StringBuilder();
+		b.append(HEADER);
+		for (NagiosCheckResult r : results) {
+			append(b, r);
+		}
+		b.append(FOOTER);
+		return b.toString();
+	}
+
+	static void append(StringBuilder b, NagiosCheckResult r) {
+		b.append(RESULT_START);
+		b.append(HOSTNAME_START);
+		b.append(StringEscapeUtils.escapeXml(r.getHost()));
+		b.append(HOSTNAME_END);
+		b.append(SERVICENAME_START);
+		b.append(StringEscapeUtils.escapeXml(r.getService()));
+		b.append(SERVICENAME_END);
+		b.append(STATE_START);
+		b.append(r.getState().getCode());
+		b.append(STATE_END);
+		b.append(OUTPUT_START);
+		b.append(StringEscapeUtils.escapeXml(r.getMessage()));
+		b.append(OUTPUT_END);
+		b.append(RESULT_END);
+	}
+
+	/**
+	 * @return the number of bytes the given result adds to the url encoded XML document
+	 */
+	static int encodedSize(NagiosCheckResult r) {
+		return RESULT_TEMPLATE_ENCODED_SIZE + escapedEncodedSize(r.getHost()) + escapedEncodedSize(r.getService())
+				+ decimalDigits(r.getState().getCode()) + escapedEncodedSize(r.getMessage());
+	}
+
+	/**
+	 * @return the url encoded size of the given text once XML escaped
+	 */
+	private static int escapedEncodedSize(String text) {
+		if (text == null) {
+			return 0;
+		}
+		int size = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '&': // &amp;
+				size += 9;
+				break;
+			case '<': // &lt;
+			case '>': // &gt;
+				size += 8;
+				break;
+			case '"': // &quot;
+			case '\'': // &apos;
+				size += 10;
+				break;
+			default:
+				if (c > 0x7F) {
+					size += 9 + decimalDigits(c); // &#NNNN; where '&', '#' and ';' are percent encoded
+				}
+				else {
+					size += formEncodedSize(c);
+				}
+			}
+		}
+		return size;
+	}
+
+	private static int formEncodedSize(String ascii) {
+		int size = 0;
+		for (int i = 0; i < ascii.length(); i++) {
+			size += formEncodedSize(ascii.charAt(i));
+		}
+		return size;
+	}
+
+	private static int formEncodedSize(char c) {
+		boolean safe = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == '.'
+				|| c == '*' || c == ' '; // space is encoded as '+'
+		return safe ? 1 : 3;
+	}
+
+	private static int decimalDigits(int value) {
+		int digits = 1;
+		while (value >= 10) {
+			value /= 10;
+			digits++;
+		}
+		return digits;
+	}
+}
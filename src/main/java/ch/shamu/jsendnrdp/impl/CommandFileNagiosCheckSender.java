@@ -0,0 +1,221 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.shamu.jsendnrdp.NRDPException;
+import ch.shamu.jsendnrdp.NRDPRejectionException;
+import ch.shamu.jsendnrdp.NagiosCheckSender;
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+
+/**
+ * <p>
+ * Sender for applications running on the Nagios host itself : check results are written as PROCESS_SERVICE_CHECK_RESULT external commands
+ * to the Nagios command file (a named pipe, command_file in nagios.cfg), without going through NRDP and the web server.
+ * <p>
+ * Commands are written in blocks of whole lines no larger than PIPE_BUF (4096 bytes on Linux), so that each block is written atomically
+ * even when other processes write to the pipe at the same time. A command too long to fit in one block gets its output truncated, a result
+ * whose host and service names alone don't fit is rejected. The threads of one sender share the pipe : their writes are serialized by the channel.
+ * <p>
+ * Opening a pipe for writing blocks until someone reads it : if Nagios is not running, opening fails after a timeout. If Nagios goes away
+ * while the pipe is open (restart), the pipe is reopened.
+ */
+public class CommandFileNagiosCheckSender implements NagiosCheckSender {
+
+	private final static Logger logger = LoggerFactory.getLogger(CommandFileNagiosCheckSender.class);
+
+	/**
+	 * Largest atomic write to a pipe on Linux. POSIX only guarantees 512 bytes (_POSIX_PIPE_BUF), other systems may need smaller blocks
+	 */
+	final static int PIPE_BUF = 4096;
+
+	private final static byte[] COMMAND = "] PROCESS_SERVICE_CHECK_RESULT;".getBytes(StandardCharsets.US_ASCII);
+
+	private final Path commandFile;
+	private final long openTimeoutMillis;
+	private final ExecutorService opener;
+	private volatile FileChannel channel;
+
+	/**
+	 * @param commandFile       is the Nagios external command file, for example /usr/local/nagios/var/rw/nagios.cmd
+	 * @param openTimeoutMillis is the maximum time to wait for Nagios to read the command file when opening it
+	 */
+	public CommandFileNagiosCheckSender(Path commandFile, long openTimeoutMillis) {
+		this.commandFile = commandFile;
+		this.openTimeoutMillis = openTimeoutMillis;
+		this.opener = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "nrdp-command-file-opener");
+			thread.setDaemon(true);
+			return thread;
+		});
+		logger.info("Nagios command file : " + commandFile);
+	}
+
+	public void send(Collection<NagiosCheckResult> checkResults) throws NRDPException, IOException {
+		long timestamp = System.currentTimeMillis() / 1000;
+		for (ByteBuffer block : toBlocks(checkResults, timestamp)) {
+			write(block);
+		}
+		logger.info(checkResults.size() + " check results succesfully written to " + commandFile);
+	}
+
+	/**
+	 * Pack the command lines into blocks of at most PIPE_BUF bytes, without splitting any line
+	 */
+	static List<ByteBuffer> toBlocks(Collection<NagiosCheckResult> checkResults, long timestamp) throws NRDPRejectionException {
+		List<ByteBuffer> blocks = new ArrayList<ByteBuffer>();
+		ByteBuffer block = ByteBuffer.allocate(PIPE_BUF);
+		byte[] prefix = ("[" + timestamp).getBytes(StandardCharsets.US_ASCII);
+		for (NagiosCheckResult r : checkResults) {
+			byte[] line = commandLine(prefix, r);
+			if (line.length > block.remaining()) {
+				block.flip();
+				blocks.add(block);
+				block = ByteBuffer.allocate(PIPE_BUF);
+			}
+			block.put(line);
+		}
+		if (block.position() > 0) {
+			block.flip();
+			blocks.add(block);
+		}
+		return blocks;
+	}
+
+	private static byte[] commandLine(byte[] prefix, NagiosCheckResult r) throws NRDPRejectionException {
+		byte[] head = (field(r.getHost()) + ";" + field(r.getService()) + ";" + r.getState().getCode() + ";").getBytes(StandardCharsets.UTF_8);
+		int maxOutputLength = PIPE_BUF - prefix.length - COMMAND.length - head.length - 1;
+		if (maxOutputLength < 0) { // truncating the names would report the result for another service
+			throw new NRDPRejectionException("Host and service names of nagios check result {hostname:" + r.getHost() + ",servicename:"
+					+ r.getService() + "} don't fit in " + PIPE_BUF + " bytes");
+		}
+		byte[] output = escapeOutput(r.getMessage()).getBytes(StandardCharsets.UTF_8);
+		int outputLength = Math.min(output.length, maxOutputLength);
+		if (outputLength < output.length) {
+			logger.warn("Output of nagios check result {hostname:" + r.getHost() + ",servicename:" + r.getService() + "} truncated to fit in "
+					+ PIPE_BUF + " bytes");
+			while (outputLength > 0 && (output[outputLength] & 0xC0) == 0x80) {
+				outputLength--; // don't cut a UTF-8 sequence
+			}
+		}
+		ByteBuffer line = ByteBuffer.allocate(prefix.length + COMMAND.length + head.length + outputLength + 1);
+		line.put(prefix).put(COMMAND).put(head).put(output, 0, outputLength).put((byte) '\n');
+		return line.array();
+	}
+
+	private static String field(String value) {
+		return value == null ? "" : value.replace(';', ' ').replace('\n', ' ').replace('\r', ' ');
+	}
+
+	private static String escapeOutput(String output) {
+		if (output == null) {
+			return "";
+		}
+		return output.replace("\\", "\\\\").replace("\r", "").replace("\n", "\\n");
+	}
+
+	private void write(ByteBuffer block) throws IOException {
+		FileChannel current = open();
+		try {
+			writeFully(current, block);
+		}
+		catch (IOException e) { // Nagios stopped reading (broken pipe), try again with a new pipe
+			logger.warn("Failed to write to nagios command file, reopening it : " + e.getMessage());
+			block.rewind(); // blocks are written atomically : all or nothing
+			close(current);
+			writeFully(open(), block);
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer block) throws IOException {
+		while (block.hasRemaining()) {
+			channel.write(block);
+		}
+	}
+
+	private FileChannel open() throws IOException {
+		FileChannel current = channel;
+		if (current != null) {
+			return current;
+		}
+		synchronized (this) {
+			if (channel == null) {
+				channel = openWithTimeout();
+			}
+			return channel;
+		}
+	}
+
+	private FileChannel openWithTimeout() throws IOException {
+		Future<FileChannel> opening = opener.submit(() -> FileChannel.open(commandFile, StandardOpenOption.WRITE));
+		try {
+			return opening.get(openTimeoutMillis, TimeUnit.MILLISECONDS);
+		}
+		catch (TimeoutException e) {
+			// nobody is reading the pipe, release the opener thread by opening the reading end ourselves
+			FileInputStream reader = new FileInputStream(commandFile.toFile());
+			try {
+				opening.get().close();
+			}
+			catch (InterruptedException | ExecutionException ignored) {
+				// closing anyway
+			}
+			finally {
+				reader.close();
+			}
+			throw new IOException("Nagios is not reading the command file " + commandFile + " (not running ?)");
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Failed to open nagios command file " + commandFile, e.getCause());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			opening.cancel(true);
+			throw new IOException("Interrupted while opening nagios command file " + commandFile, e);
+		}
+	}
+
+	/**
+	 * Close the given channel, unless another thread already replaced it
+	 */
+	private synchronized void close(FileChannel failed) {
+		if (channel != null && channel == failed) {
+			try {
+				channel.close();
+			}
+			catch (IOException e) {
+				logger.debug("Failed to close nagios command file", e);
+			}
+			channel = null;
+		}
+	}
+
+	Path getCommandFile() {
+		return commandFile;
+	}
+
+	public void shutdown() {
+		close(channel);
+		opener.shutdown();
+	}
+}
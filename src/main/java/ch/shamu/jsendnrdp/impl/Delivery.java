@@ -0,0 +1,58 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import ch.shamu.jsendnrdp.NRDPException;
+import ch.shamu.jsendnrdp.NagiosCheckSender;
+import ch.shamu.jsendnrdp.domain.DeliveryReceipt;
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+
+/**
+ * Where a batch of check results was delivered, and in how many requests, for its {@link DeliveryReceipt}. The transports don't know about
+ * receipts : the endpoint is the one of the transport the batch was sent through, decorators tell which of their senders delivered it.
+ */
+final class Delivery {
+
+	final String endpoint; // null if unknown
+	final int attempts;
+
+	Delivery(String endpoint, int attempts) {
+		this.endpoint = endpoint;
+		this.attempts = attempts;
+	}
+
+	/**
+	 * Send the results through the given sender
+	 * @return where the results were delivered
+	 */
+	static Delivery send(NagiosCheckSender sender, Collection<NagiosCheckResult> results) throws NRDPException, IOException {
+		if (sender instanceof NonBlockingNagiosCheckSender.MeteredSender) {
+			return ((NonBlockingNagiosCheckSender.MeteredSender) sender).deliver(results);
+		}
+		if (sender instanceof HedgingNagiosCheckSender) {
+			return ((HedgingNagiosCheckSender) sender).deliver(results);
+		}
+		if (sender instanceof BisectingNagiosCheckSender) {
+			return ((BisectingNagiosCheckSender) sender).deliver(results);
+		}
+		sender.send(results);
+		return new Delivery(endpointOf(sender), 1);
+	}
+
+	/**
+	 * @return the endpoint of a transport, null for other senders
+	 */
+	static String endpointOf(NagiosCheckSender sender) {
+		if (sender instanceof NagiosCheckSenderImpl) {
+			return ((NagiosCheckSenderImpl) sender).getServer().getUrl();
+		}
+		if (sender instanceof CommandFileNagiosCheckSender) {
+			return ((CommandFileNagiosCheckSender) sender).getCommandFile().toString();
+		}
+		if (sender instanceof CheckResultSpoolSender) {
+			return ((CheckResultSpoolSender) sender).getCheckResultDirectory().toString();
+		}
+		return null;
+	}
+}
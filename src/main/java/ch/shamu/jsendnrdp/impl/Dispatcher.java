@@ -0,0 +1,43 @@
+package ch.shamu.jsendnrdp.impl;
+
+/**
+ * A dispatcher hands send jobs over to worker threads.
+ * <p>
+ * Implementations are bounded : when the backlog is full, {@link #offer(Runnable)} returns false instead of blocking the caller.
+ */
+public interface Dispatcher {
+
+	/**
+	 * Queue a job for execution by one of the worker threads
+	 * @param job is the job to run
+	 * @return false if the job could not be queued because the backlog is full
+	 * @throws java.util.concurrent.RejectedExecutionException if the dispatcher has been shut down
+	 */
+	boolean offer(Runnable job);
+
+	/**
+	 * @return the (approximate) number of queued jobs, jobs currently in execution are not taken into account
+	 */
+	int size();
+
+	/**
+	 * @return the maximum number of queued jobs (0 means unbounded)
+	 */
+	int getCapacity();
+
+	/**
+	 * @return the number of worker threads
+	 */
+	int getPoolSize();
+
+	/**
+	 * Change the number of worker threads. Workers in excess stop once done with their current job.
+	 * @param nbThreads is the new number of worker threads
+	 */
+	void setPoolSize(int nbThreads);
+
+	/**
+	 * Stop accepting new jobs, already queued jobs are still executed
+	 */
+	void shutdown();
+}
@@ -0,0 +1,57 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * {@link Dispatcher} backed by a {@link ThreadPoolExecutor}. The backlog is bounded by checking the size of the executor's queue before
+ * submitting, which takes the queue's lock : prefer {@link RingBufferDispatcher} when many threads send results concurrently.
+ */
+public class ExecutorDispatcher implements Dispatcher {
+
+	private final ThreadPoolExecutor executor;
+	private final int maxQueueSize;
+
+	/**
+	 * @param executor     is the executor running the jobs
+	 * @param maxQueueSize is the maximum number of queued jobs (0 means unbounded)
+	 */
+	public ExecutorDispatcher(ThreadPoolExecutor executor, int maxQueueSize) {
+		this.executor = executor;
+		this.maxQueueSize = maxQueueSize;
+	}
+
+	public boolean offer(Runnable job) {
+		if (maxQueueSize > 0 && executor.getQueue().size() >= maxQueueSize) {
+			return false;
+		}
+		executor.execute(job);
+		return true;
+	}
+
+	public int size() {
+		return executor.getQueue().size();
+	}
+
+	public int getCapacity() {
+		return maxQueueSize;
+	}
+
+	public int getPoolSize() {
+		return executor.getCorePoolSize();
+	}
+
+	public void setPoolSize(int nbThreads) {
+		if (nbThreads > executor.getMaximumPoolSize()) { // the core size can't exceed the maximum size
+			executor.setMaximumPoolSize(nbThreads);
+			executor.setCorePoolSize(nbThreads);
+		}
+		else {
+			executor.setCorePoolSize(nbThreads);
+			executor.setMaximumPoolSize(nbThreads);
+		}
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,154 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Approximate timer for large numbers of timeouts (hashed timing wheel, as described by George Varghese and Tony Lauck).
+ * <p>
+ * Timeouts are hashed into the buckets of a wheel which a single thread advances every tick, so scheduling and cancelling a timeout is O(1)
+ * whatever the number of pending ones. Timeouts fire with a precision of one tick, on the timer thread : tasks must be short.
+ */
+class HashedWheelTimer {
+
+	private final static Logger logger = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+	private final long tickNanos;
+	private final Timeout[] wheel; // each bucket is a linked list of timeouts, only accessed by the timer thread
+	private final int mask;
+	private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<Timeout>();
+	private final Runnable tickListener;
+	private final Thread thread;
+	private final long startTime;
+	private volatile boolean running = true;
+
+	/**
+	 * @param tickDuration  is the precision of the timer
+	 * @param ticksPerWheel is the number of buckets of the wheel (rounded up to a power of 2)
+	 * @param tickListener  is run by the timer thread after the timeouts of each tick have fired (may be null)
+	 * @param threadName    is the name of the timer thread
+	 */
+	HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel, Runnable tickListener, String threadName) {
+		this.tickNanos = unit.toNanos(tickDuration);
+		int buckets = Integer.highestOneBit(Math.max(1, ticksPerWheel - 1)) << 1;
+		this.wheel = new Timeout[buckets];
+		this.mask = buckets - 1;
+		this.tickListener = tickListener;
+		this.startTime = System.nanoTime();
+		this.thread = new Thread(this::run, threadName);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Run the given task once the delay has elapsed
+	 */
+	Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(delay) - startTime);
+		scheduled.add(timeout);
+		return timeout;
+	}
+
+	void stop() {
+		running = false;
+		thread.interrupt();
+	}
+
+	private void run() {
+		long tick = 0;
+		while (running) {
+			long deadline = (tick + 1) * tickNanos;
+			long sleep = deadline - (System.nanoTime() - startTime);
+			if (sleep > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleep);
+				}
+				catch (InterruptedException e) {
+					continue; // stopped
+				}
+			}
+			transferScheduledTimeouts(tick);
+			expire(tick);
+			if (tickListener != null) {
+				safeRun(tickListener);
+			}
+			tick++;
+		}
+	}
+
+	private void transferScheduledTimeouts(long tick) {
+		Timeout timeout;
+		while ((timeout = scheduled.poll()) != null) {
+			if (timeout.cancelled) {
+				continue;
+			}
+			long expirationTick = Math.max(tick, timeout.deadline / tickNanos); // late timeouts fire on this tick
+			timeout.remainingRounds = (expirationTick - tick) / wheel.length;
+			int bucket = (int) (expirationTick & mask);
+			timeout.next = wheel[bucket];
+			wheel[bucket] = timeout;
+		}
+	}
+
+	private void expire(long tick) {
+		int bucket = (int) (tick & mask);
+		Timeout previous = null;
+		Timeout timeout = wheel[bucket];
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			boolean remove = timeout.cancelled || timeout.remainingRounds <= 0;
+			if (remove) {
+				if (previous == null) {
+					wheel[bucket] = next;
+				}
+				else {
+					previous.next = next;
+				}
+				timeout.next = null;
+				if (!timeout.cancelled) {
+					safeRun(timeout.task);
+				}
+			}
+			else {
+				timeout.remainingRounds--;
+				previous = timeout;
+			}
+			timeout = next;
+		}
+	}
+
+	private static void safeRun(Runnable task) {
+		try {
+			task.run();
+		}
+		catch (Throwable e) {
+			logger.error("Uncaught exception in timer task : ", e);
+		}
+	}
+
+	/**
+	 * A pending task, which can be cancelled
+	 */
+	static final class Timeout {
+
+		private final Runnable task;
+		private final long deadline; // relative to the timer's start time
+		private volatile boolean cancelled;
+		private long remainingRounds;
+		private Timeout next;
+
+		private Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		void cancel() {
+			cancelled = true;
+		}
+	}
+}
@@ -0,0 +1,341 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.shamu.jsendnrdp.NRDPException;
+import ch.shamu.jsendnrdp.NagiosCheckSender;
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+
+/**
+ * <p>
+ * Decorator cutting the tail latency of a slow NRDP server (Nagios reloads, check result reaping, ...) with hedged requests.
+ * <p>
+ * Results are sent to the primary sender from a pool of request threads. If it hasn't answered after the hedge delay, the same results are
+ * sent to the secondary sender too, from a small pool of hedge threads. The calling thread returns as soon as either request succeeds, and
+ * the other one is abandoned : its connection is closed if it is a {@link NagiosCheckSenderImpl}, its thread is interrupted otherwise. The
+ * calling thread fails only once both requests have failed, or if the primary one fails before being hedged. Sending the same passive
+ * check result twice is harmless : Nagios processes both, the last one wins.
+ * <p>
+ * The hedge delay is a percentile of the latencies recently observed on the primary sender (never shorter than the minimum delay), so that
+ * only the slowest requests are hedged. The number of hedged requests is capped by a budget, a fraction of the number of requests, and by a
+ * number of outstanding hedges, so that hedging can't double the load when the primary sender is slow across the board. When all the
+ * request threads are busy, the results are sent to the primary sender on the calling thread, without hedging.
+ */
+public class HedgingNagiosCheckSender implements NagiosCheckSender {
+
+	private final static Logger logger = LoggerFactory.getLogger(HedgingNagiosCheckSender.class);
+
+	private final static int LATENCY_SAMPLES = 1024; // power of 2
+	private final static int SAMPLES_BETWEEN_UPDATES = 64;
+	private final static long CREDIT_UNIT = 1000000; // hedge credit is counted in millionths of a hedged request
+	private final static long MAX_HEDGE_CREDIT = 10 * CREDIT_UNIT;
+	private final static long IDLE_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+	private final NagiosCheckSender primary;
+	private final NagiosCheckSender secondary;
+	private final double percentile;
+	private final long minDelayNanos;
+	private final long hedgeCreditPerRequest;
+	private final int maxOutstandingHedges;
+	private final ThreadPoolExecutor requests;
+	private final ScheduledThreadPoolExecutor hedges;
+
+	private final AtomicLongArray latencies = new AtomicLongArray(LATENCY_SAMPLES);
+	private final AtomicLong latencySamples = new AtomicLong();
+	private volatile long hedgeDelayNanos;
+	private final AtomicLong hedgeCredit = new AtomicLong();
+	private final AtomicInteger outstandingHedges = new AtomicInteger();
+	private final AtomicLong hedgedRequests = new AtomicLong();
+	private final AtomicLong secondaryWins = new AtomicLong();
+
+	/**
+	 * @param primary               is the sender used for all requests
+	 * @param secondary             is the sender used for hedged requests, usually connected to another NRDP server
+	 * @param percentile            is the percentile of the primary sender's latency after which a request is hedged (for example 0.95)
+	 * @param minDelay              is the minimum time to wait before hedging a request
+	 * @param unit                  is the unit of minDelay
+	 * @param hedgeBudget           is the maximum fraction of requests hedged (for example 0.05)
+	 * @param maxConcurrentRequests is the maximum number of requests sent to the primary sender at the same time, the number of request
+	 *                              threads (usually the number of threads calling this sender)
+	 * @param maxOutstandingHedges  is the maximum number of hedged requests sent at the same time, the number of hedge threads
+	 */
+	public HedgingNagiosCheckSender(NagiosCheckSender primary, NagiosCheckSender secondary, double percentile, long minDelay, TimeUnit unit,
+			double hedgeBudget, int maxConcurrentRequests, int maxOutstandingHedges) {
+		if (maxConcurrentRequests <= 0) {
+			throw new IllegalArgumentException("The maximum number of concurrent requests must be positive : " + maxConcurrentRequests);
+		}
+		if (maxOutstandingHedges <= 0) {
+			throw new IllegalArgumentException("The maximum number of outstanding hedges must be positive : " + maxOutstandingHedges);
+		}
+		this.primary = primary;
+		this.secondary = secondary;
+		this.percentile = percentile;
+		this.minDelayNanos = unit.toNanos(minDelay);
+		this.hedgeCreditPerRequest = (long) (hedgeBudget * CREDIT_UNIT);
+		this.maxOutstandingHedges = maxOutstandingHedges;
+		this.hedgeDelayNanos = minDelayNanos;
+		this.requests = new ThreadPoolExecutor(maxConcurrentRequests, maxConcurrentRequests, IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), new NamedThreadFactory("nrdp-hedged-request"));
+		this.requests.allowCoreThreadTimeOut(true);
+		this.hedges = new ScheduledThreadPoolExecutor(maxOutstandingHedges, new NamedThreadFactory("nrdp-hedge"));
+		this.hedges.setRemoveOnCancelPolicy(true); // most hedges are cancelled before their delay
+	}
+
+	public void send(Collection<NagiosCheckResult> checkResults) throws NRDPException, IOException {
+		deliver(checkResults);
+	}
+
+	/**
+	 * Same as send, telling which sender delivered the results
+	 */
+	Delivery deliver(Collection<NagiosCheckResult> checkResults) throws NRDPException, IOException {
+		earnHedgeCredit();
+		Race race = new Race(checkResults);
+		synchronized (race) {
+			race.hedgeTimer = hedges.schedule(race::hedge, hedgeDelayNanos, TimeUnit.NANOSECONDS);
+		}
+		try {
+			race.primaryRequest = requests.submit(race::sendPrimary);
+		}
+		catch (RejectedExecutionException e) { // all the request threads are busy
+			race.hedgeTimer.cancel(false);
+			return sendPrimary(checkResults, null);
+		}
+		try {
+			return race.winner.get();
+		}
+		catch (ExecutionException e) { // both attempts failed, or the primary one failed before being hedged
+			throw rethrow(e.getCause());
+		}
+		catch (InterruptedException e) {
+			race.abandon(race.primaryAbort, race.primaryRequest);
+			race.abandon(race.hedgeAbort, race.hedgeTimer);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the NRDP server");
+		}
+	}
+
+	private Delivery sendPrimary(Collection<NagiosCheckResult> checkResults, Abort abort) throws NRDPException, IOException {
+		long start = System.nanoTime();
+		Delivery delivery = send(primary, checkResults, abort);
+		recordLatency(System.nanoTime() - start); // losers too, the delay follows the primary sender's latency
+		return delivery;
+	}
+
+	private static Delivery send(NagiosCheckSender sender, Collection<NagiosCheckResult> checkResults, Abort abort) throws NRDPException,
+			IOException {
+		if (sender instanceof NagiosCheckSenderImpl && abort != null) {
+			((NagiosCheckSenderImpl) sender).send(checkResults, abort);
+			return new Delivery(Delivery.endpointOf(sender), 1);
+		}
+		return Delivery.send(sender, checkResults);
+	}
+
+	/**
+	 * Throw the failure as is if the signature of send allows it
+	 * @return the failure wrapped in an IOException otherwise
+	 */
+	private static IOException rethrow(Throwable failure) throws NRDPException, IOException {
+		if (failure instanceof NRDPException) {
+			throw (NRDPException) failure;
+		}
+		if (failure instanceof IOException) {
+			throw (IOException) failure;
+		}
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+		if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+		return new IOException(failure);
+	}
+
+	private void recordLatency(long nanos) {
+		long sample = latencySamples.getAndIncrement();
+		latencies.set((int) (sample & (LATENCY_SAMPLES - 1)), nanos);
+		if ((sample + 1) % SAMPLES_BETWEEN_UPDATES == 0) {
+			int count = (int) Math.min(sample + 1, LATENCY_SAMPLES);
+			long[] sorted = new long[count];
+			for (int i = 0; i < count; i++) {
+				sorted[i] = latencies.get(i);
+			}
+			Arrays.sort(sorted);
+			hedgeDelayNanos = Math.max(minDelayNanos, sorted[Math.min(count - 1, (int) (percentile * count))]);
+		}
+	}
+
+	private void earnHedgeCredit() {
+		if (hedgeCredit.get() < MAX_HEDGE_CREDIT) { // a racy cap is good enough
+			hedgeCredit.addAndGet(hedgeCreditPerRequest);
+		}
+	}
+
+	private boolean spendHedgeCredit() {
+		while (true) {
+			long credit = hedgeCredit.get();
+			if (credit < CREDIT_UNIT) {
+				return false;
+			}
+			if (hedgeCredit.compareAndSet(credit, credit - CREDIT_UNIT)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of requests sent to the secondary sender since this sender was created
+	 */
+	public long getHedgedRequests() {
+		return hedgedRequests.get();
+	}
+
+	/**
+	 * @return the number of hedged requests where the secondary sender answered first
+	 */
+	public long getSecondaryWins() {
+		return secondaryWins.get();
+	}
+
+	/**
+	 * @return the current delay after which a request is hedged
+	 */
+	public long getHedgeDelay(TimeUnit unit) {
+		return unit.convert(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void shutdown() {
+		requests.shutdownNow();
+		hedges.shutdownNow();
+		primary.shutdown();
+		secondary.shutdown();
+	}
+
+	/**
+	 * A primary request and its hedge, the first one to succeed wins and the other one is abandoned
+	 */
+	private class Race {
+
+		private final Collection<NagiosCheckResult> results;
+		private final CompletableFuture<Delivery> winner = new CompletableFuture<Delivery>();
+		private final Abort primaryAbort = new Abort();
+		private final Abort hedgeAbort = new Abort();
+		private volatile Future<?> primaryRequest;
+		private ScheduledFuture<?> hedgeTimer; // guarded by this, set before the primary request is sent
+		private boolean hedgeDecided; // guarded by this, the results were hedged, or won't be
+		private int running = 1; // guarded by this
+		private Throwable failure; // guarded by this
+
+		Race(Collection<NagiosCheckResult> results) {
+			this.results = results;
+		}
+
+		Void sendPrimary() {
+			try {
+				done(primary, HedgingNagiosCheckSender.this.sendPrimary(results, primaryAbort), null);
+			}
+			catch (Throwable e) {
+				done(primary, null, e);
+			}
+			return null;
+		}
+
+		/**
+		 * Sends the results to the secondary sender once the hedge delay has elapsed, unless the race is over or the hedge budget is spent
+		 */
+		void hedge() {
+			synchronized (this) {
+				if (hedgeDecided) {
+					return;
+				}
+				hedgeDecided = true;
+				if (winner.isDone() || outstandingHedges.incrementAndGet() > maxOutstandingHedges || !spendHedgeCredit()) {
+					if (!winner.isDone()) {
+						outstandingHedges.decrementAndGet();
+					}
+					failIfLost();
+					return;
+				}
+				running++;
+			}
+			hedgedRequests.incrementAndGet();
+			logger.debug("Hedging a request of {} check results after {}ns", results.size(), hedgeDelayNanos);
+			try {
+				done(secondary, send(secondary, results, hedgeAbort), null);
+			}
+			catch (Throwable e) {
+				done(secondary, null, e);
+			}
+			finally {
+				outstandingHedges.decrementAndGet();
+			}
+		}
+
+		private void done(NagiosCheckSender sender, Delivery delivery, Throwable e) {
+			synchronized (this) {
+				running--;
+				if (!hedgeDecided && (e == null || hedgeTimer.cancel(false))) { // no need to hedge a delivered or failed request
+					hedgeTimer.cancel(false);
+					hedgeDecided = true;
+				}
+				if (e != null) {
+					if (failure == null) {
+						failure = e;
+					}
+					else if (failure != e) {
+						failure.addSuppressed(e);
+					}
+					failIfLost();
+					return;
+				}
+				if (winner.isDone()) {
+					return;
+				}
+				if (sender == secondary) {
+					secondaryWins.incrementAndGet(); // before the caller returns
+				}
+				winner.complete(delivery);
+			}
+			if (sender == primary) {
+				abandon(hedgeAbort, hedgeTimer);
+			}
+			else {
+				abandon(primaryAbort, primaryRequest);
+			}
+		}
+
+		/**
+		 * Fail the race once no request is running nor can be hedged anymore
+		 */
+		private void failIfLost() {
+			if (running == 0 && hedgeDecided) {
+				winner.completeExceptionally(failure);
+			}
+		}
+
+		void abandon(Abort abort, Future<?> request) {
+			abort.abort();
+			if (request != null) {
+				request.cancel(true); // interrupts the senders which can't be aborted
+			}
+		}
+	}
+}
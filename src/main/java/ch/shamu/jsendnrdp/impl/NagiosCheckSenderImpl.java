@@ -3,25 +3,48 @@ package ch.shamu.jsendnrdp.impl;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.UncheckedIOException;
+import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
-import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.http.HttpClientConnection;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.DefaultRoutePlanner;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.ssl.SSLContexts;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,67 +54,241 @@ import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
 import ch.shamu.jsendnrdp.NRDPException;
+import ch.shamu.jsendnrdp.NRDPRejectionException;
 import ch.shamu.jsendnrdp.NRDPServerConnectionSettings;
 import ch.shamu.jsendnrdp.NagiosCheckSender;
 import ch.shamu.jsendnrdp.domain.CheckSubmissionResult;
 import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+import ch.shamu.jsendnrdp.domain.State;
 
 /**
  * <pre>
  * In this implementation, calls to the send method waits for the NRDP server's response before returning.
  * However, concurrent calls to the send method do send http requests in parallel.
  * </pre>
+ * <p>
+ * Connections to the NRDP server are pooled and TLS sessions are cached, so that most requests neither connect nor handshake. The sender
+ * can be warmed up (see {@link #warmUp(int)}) so that the first results sent don't pay for DNS resolution, connection, TLS handshake and
+ * class loading.
+ * <p>
+ * Several senders can share one connection pool (see {@link NagiosSenderContext}), each one keeping its own settings.
  */
 public class NagiosCheckSenderImpl implements NagiosCheckSender {
 
 	private final static Logger logger = LoggerFactory.getLogger(NagiosCheckSenderImpl.class);
 
+	private final static int DEFAULT_MAX_CONNECTIONS = 20;
+	final static int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 2; // httpclient's default
+	private final static int TLS_SESSION_TIMEOUT_SECONDS = 24 * 3600;
+	private final static long WARM_CONNECTION_KEEP_ALIVE_SECONDS = 60;
+	private final static String WARM_UP_RESPONSE = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<result>\n  <status>0</status>\n"
+			+ "  <message>OK</message>\n</result>\n";
+
+	// errors about the request itself rather than the submitted check results
+	private final static Set<String> REQUEST_ERRORS = new HashSet<String>(Arrays.asList("NO TOKEN", "BAD TOKEN", "NO COMMAND",
+			"BAD COMMAND", "NO REQUEST HANDLER", "NO DATA"));
+	private final static SAXParserFactory saxParserFactory = SAXParserFactory.newInstance(); // the lookup is expensive
+	private final static ThreadLocal<SAXParser> saxParser = new ThreadLocal<SAXParser>();
+
 	private final NRDPServerConnectionSettings server;
+	private final PoolingHttpClientConnectionManager connectionManager;
 	private final CloseableHttpClient httpClient;
+	private final boolean ownsHttpClient;
+	private volatile RequestConfig requestConfig;
+	private final CompletableFuture<Void> warmUp = new CompletableFuture<Void>();
 
 	public NagiosCheckSenderImpl(NRDPServerConnectionSettings server) {
+		this(server, 0);
+	}
+
+	/**
+	 * @param server            is the nrdp server connection settings
+	 * @param warmUpConnections is the number of connections to open in the background right away (see {@link #warmUp(int)}), 0 means no
+	 *                          warm up. Up to 2 connections are kept to the server (httpclient's default), or warmUpConnections if more.
+	 */
+	public NagiosCheckSenderImpl(NRDPServerConnectionSettings server, int warmUpConnections) {
+		this(server, createConnectionManager(Math.max(DEFAULT_MAX_CONNECTIONS, warmUpConnections),
+				Math.max(DEFAULT_MAX_CONNECTIONS_PER_ROUTE, warmUpConnections)), true, warmUpConnections);
+	}
+
+	/**
+	 * Sender using a connection pool shared with other senders, the pool is not closed when this sender shuts down
+	 */
+	NagiosCheckSenderImpl(NRDPServerConnectionSettings server, PoolingHttpClientConnectionManager connectionManager,
+			CloseableHttpClient httpClient) {
+		this(server, connectionManager, httpClient, false, 0);
+	}
+
+	private NagiosCheckSenderImpl(NRDPServerConnectionSettings server, PoolingHttpClientConnectionManager connectionManager,
+			boolean ownsHttpClient, int warmUpConnections) {
+		this(server, connectionManager, createHttpClient(connectionManager), ownsHttpClient, warmUpConnections);
+	}
+
+	private NagiosCheckSenderImpl(NRDPServerConnectionSettings server, PoolingHttpClientConnectionManager connectionManager,
+			CloseableHttpClient httpClient, boolean ownsHttpClient, int warmUpConnections) {
 		this.server = server;
-		// initialize HTTP client 
-		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
-		RequestConfig requestConfig = RequestConfig.custom()//
-				.setSocketTimeout(server.getTimeout())//
-				.setConnectTimeout(server.getTimeout()).build();
-		httpClient = HttpClients.custom()//
-				.setDefaultRequestConfig(requestConfig)//
+		this.connectionManager = connectionManager;
+		this.httpClient = httpClient;
+		this.ownsHttpClient = ownsHttpClient;
+		// set on each request, since the client may be shared by senders with different timeouts
+		this.requestConfig = requestConfig(server.getTimeout());
+
+		if (warmUpConnections > 0) {
+			Thread warmer = new Thread(() -> warmUp(warmUpConnections), "nrdp-warm-up");
+			warmer.setDaemon(true);
+			warmer.start();
+		}
+	}
+
+	/**
+	 * @return a connection pool where all connections share one SSL context, so that TLS sessions are resumed instead of renegotiated
+	 */
+	static PoolingHttpClientConnectionManager createConnectionManager(int maxConnections, int maxConnectionsPerRoute) {
+		SSLContext sslContext = SSLContexts.createDefault();
+		sslContext.getClientSessionContext().setSessionTimeout(TLS_SESSION_TIMEOUT_SECONDS);
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(RegistryBuilder
+				.<ConnectionSocketFactory> create()//
+				.register("http", PlainConnectionSocketFactory.getSocketFactory())//
+				.register("https", new SSLConnectionSocketFactory(sslContext, SSLConnectionSocketFactory.getDefaultHostnameVerifier()))//
+				.build());
+		connectionManager.setMaxTotal(maxConnections);
+		connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+		return connectionManager;
+	}
+
+	static CloseableHttpClient createHttpClient(PoolingHttpClientConnectionManager connectionManager) {
+		return HttpClients.custom()//
 				.setConnectionManager(connectionManager)//
+				.disableConnectionState() // pooled connections can be reused by any thread, even with TLS client authentication
 				.build();
 	}
 
+	/**
+	 * @return the route the requests to the given NRDP url take, which identifies its connections in the pool
+	 */
+	static HttpRoute routeOf(String url) throws HttpException {
+		HttpPost request = new HttpPost(url);
+		HttpHost target = new HttpHost(request.getURI().getHost(), request.getURI().getPort(), request.getURI().getScheme());
+		return new DefaultRoutePlanner(DefaultSchemePortResolver.INSTANCE).determineRoute(target, request, HttpClientContext.create());
+	}
+
+	/**
+	 * <p>
+	 * Prepare this sender to send its first results as fast as the following ones : resolve the NRDP server's name, open the given number of
+	 * pooled connections (including TLS handshakes), and run the XML serialization and parsing code paths once so that their classes are
+	 * loaded. The JIT compiles them later, once they have been run thousands of times.
+	 * <p>
+	 * Idle connections are eventually closed by the server (keep alive timeout), the warm up is meant to be run at startup.
+	 *
+	 * @param connections is the number of connections to open
+	 * @return a future completed once the sender is warm (see {@link #isWarm()})
+	 */
+	public CompletableFuture<Void> warmUp(int connections) {
+		long start = System.nanoTime();
+		try {
+			HttpRoute route = routeOf(server.getUrl());
+			InetAddress.getAllByName(route.getTargetHost().getHostName());
+			warmUpSerialization();
+			openConnections(route, connections);
+			logger.info("NRDP sender warmed up in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms (" + connections
+					+ " connections opened)");
+			warmUp.complete(null);
+		}
+		catch (Exception e) {
+			logger.warn("NRDP sender warm up failed : ", e);
+			warmUp.completeExceptionally(e);
+		}
+		return warmUp;
+	}
+
+	/**
+	 * @return true once a warm up has completed successfully
+	 */
+	public boolean isWarm() {
+		return warmUp.isDone() && !warmUp.isCompletedExceptionally();
+	}
+
+	/**
+	 * @return a future completed once the sender is warm
+	 */
+	public CompletableFuture<Void> getWarmUp() {
+		return warmUp;
+	}
+
+	private void warmUpSerialization() throws Exception {
+		NagiosCheckResult r = new NagiosCheckResult("warm-up", "warm-up", State.OK, "warming up & <escaping>");
+		List<NameValuePair> postParams = new ArrayList<NameValuePair>();
+		postParams.add(new BasicNameValuePair("XMLDATA", CheckResultXml.toXml(Collections.singletonList(r))));
+		EntityUtils.toByteArray(new UrlEncodedFormEntity(postParams));
+		parseResponseXML(WARM_UP_RESPONSE);
+	}
+
+	private void openConnections(HttpRoute route, int connections) throws IOException, InterruptedException, ExecutionException {
+		HttpClientContext context = HttpClientContext.create();
+		List<HttpClientConnection> opened = new ArrayList<HttpClientConnection>();
+		try {
+			for (int i = 0; i < connections; i++) {
+				ConnectionRequest connectionRequest = connectionManager.requestConnection(route, null);
+				HttpClientConnection connection = connectionRequest.get(server.getTimeout(), TimeUnit.MILLISECONDS);
+				opened.add(connection);
+				if (!connection.isOpen()) {
+					connectionManager.connect(connection, route, server.getTimeout(), context);
+					connectionManager.routeComplete(connection, route, context);
+				}
+			}
+		}
+		finally {
+			for (HttpClientConnection connection : opened) { // back to the pool, ready to be used
+				connectionManager.releaseConnection(connection, null, WARM_CONNECTION_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+			}
+		}
+	}
+
+	private static RequestConfig requestConfig(int timeout) {
+		return RequestConfig.custom()//
+				.setSocketTimeout(timeout)//
+				.setConnectTimeout(timeout).build();
+	}
+
+	/**
+	 * @return the request config matching the current timeout, which can be changed at runtime
+	 */
+	private RequestConfig currentRequestConfig() {
+		RequestConfig config = requestConfig;
+		int timeout = server.getTimeout();
+		if (config.getSocketTimeout() != timeout) {
+			config = requestConfig(timeout);
+			requestConfig = config;
+		}
+		return config;
+	}
+
+	NRDPServerConnectionSettings getServer() {
+		return server;
+	}
+
+	/**
+	 * @return the statistics of the connection pool
+	 */
+	PoolStats getPoolStats() {
+		return connectionManager.getTotalStats();
+	}
+
 	public void send(Collection<NagiosCheckResult> results) throws NRDPException, IOException {
+		send(results, null);
+	}
 
-		// build XML
-		StringBuilder b = new StringBuilder();
+	/**
+	 * @param abort closes the connection of the request when another thread aborts it, null if the request can't be aborted
+	 */
+	void send(Collection<NagiosCheckResult> results, Abort abort) throws NRDPException, IOException {
 
-		b.append("<?xml version='1.0'?>\n");
-		b.append("  <checkresults>\n");
+		// build XML
 		for (NagiosCheckResult r : results) {
-			b.append("    <checkresult type='service' checktype='");
-			b.append(NagiosCheckResult.PASSIVE_CHECK_TYPE);
-			b.append("'>\n");
-			b.append("      <hostname>");
-			b.append(StringEscapeUtils.escapeXml(r.getHost()));
-			b.append("</hostname>\n");
-			b.append("      <servicename>");
-			b.append(StringEscapeUtils.escapeXml(r.getService()));
-			b.append("</servicename>\n");
-			b.append("      <state>");
-			b.append(r.getState().getCode());
-			b.append("</state>\n");
-			b.append("      <output>");
-			b.append(StringEscapeUtils.escapeXml(r.getMessage()));
-			b.append("</output>\n");
-			b.append("    </checkresult>\n");
 			logger.info("Nagios check results to be sent {hostname:" + r.getHost() + ",servicename:" + r.getService() + ",state:" + r.getState()
 					+ ",message:" + r.getMessage() + "}");
 		}
-		b.append("  </checkresults>\n");
-
-		String xml = b.toString();
+		String xml = CheckResultXml.toXml(results);
 
 		List<NameValuePair> postParams = new ArrayList<NameValuePair>();
 		postParams.add(new BasicNameValuePair("token", server.getToken()));
@@ -100,7 +297,11 @@ public class NagiosCheckSenderImpl implements NagiosCheckSender {
 
 		// attempt to POST the message to NRDP, using the HTTPClient
 		HttpPost request = new HttpPost(server.getUrl());
+		request.setConfig(currentRequestConfig());
 		request.setEntity(new UrlEncodedFormEntity(postParams));
+		if (abort != null) {
+			abort.onAbort(request::abort); // interrupting the thread doesn't interrupt socket I/O
+		}
 		HttpResponse response = httpClient.execute(request); // eventual IO exceptions are allowed to bubble up from here
 		HttpEntity entity = response.getEntity();
 		String responseString = EntityUtils.toString(entity, "UTF-8");
@@ -116,7 +317,11 @@ public class NagiosCheckSenderImpl implements NagiosCheckSender {
 		}
 
 		if (!result.getStatus().equals("0")) {
-			throw new NRDPException("NRDP server returned with code " + result.getStatus() + " and message " + result.getMessage());
+			String message = "NRDP server returned with code " + result.getStatus() + " and message " + result.getMessage();
+			if (result.getMessage() != null && REQUEST_ERRORS.contains(result.getMessage().trim().toUpperCase())) {
+				throw new NRDPException(message);
+			}
+			throw new NRDPRejectionException(message);
 		}
 
 		logger.info(results.size() + " check results succesfully sent to Nagios");
@@ -125,8 +330,16 @@ public class NagiosCheckSenderImpl implements NagiosCheckSender {
 	private CheckSubmissionResult parseResponseXML(String xml) throws ParserConfigurationException, SAXException, IOException {
 		final CheckSubmissionResult res = new CheckSubmissionResult();
 
-		SAXParserFactory factory = SAXParserFactory.newInstance();
-		SAXParser saxParser = factory.newSAXParser();
+		SAXParser parser = saxParser.get();
+		if (parser == null) {
+			synchronized (saxParserFactory) { // factories are not thread safe
+				parser = saxParserFactory.newSAXParser();
+			}
+			saxParser.set(parser);
+		}
+		else {
+			parser.reset();
+		}
 
 		DefaultHandler handler = new DefaultHandler() {
 
@@ -157,7 +370,7 @@ public class NagiosCheckSenderImpl implements NagiosCheckSender {
 
 		};
 
-		saxParser.parse(new InputSource(new StringReader(xml)), handler);
+		parser.parse(new InputSource(new StringReader(xml)), handler);
 		if (res.getStatus() == null || res.getMessage() == null) {
 			throw new SAXException("Failed to get response status and message");
 		}
@@ -165,6 +378,9 @@ public class NagiosCheckSenderImpl implements NagiosCheckSender {
 	}
 
 	public void shutdown() {
+		if (!ownsHttpClient) {
+			return; // the pool is closed by its owner
+		}
 		try {
 			httpClient.close();
 		}
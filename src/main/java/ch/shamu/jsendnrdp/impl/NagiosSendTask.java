@@ -2,43 +2,116 @@ package ch.shamu.jsendnrdp.impl;
 
 import java.util.Collection;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 import ch.shamu.jsendnrdp.NagiosCheckSender;
+import ch.shamu.jsendnrdp.domain.DeliveryReceipt;
 import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
 
 /**
- * Instances of this class are used to send .
+ * Instances of this class are used to send a batch of check results from a worker thread. Depending on what the caller asked for, the task
+ * completes a future with the results or with a {@link DeliveryReceipt}.
  */
 public class NagiosSendTask implements Runnable {
 
 	private final static Logger logger = LoggerFactory.getLogger(NagiosSendTask.class);
 
+	private final static AtomicLong batchIds = new AtomicLong();
+
 	private final Collection<NagiosCheckResult> results;
 	private final NagiosCheckSender sender;
-	private final RateLimiter rateLimiter;
-	private final CompletableFuture<Collection<NagiosCheckResult>> completableFuture = new CompletableFuture<>();
+	private final Throttle throttle;
+	private final AtomicInteger queuedTasks;
+	private final CompletableFuture<Collection<NagiosCheckResult>> completableFuture;
+	private final CompletableFuture<DeliveryReceipt> receiptFuture;
+
+	// delivery timings, only written by the worker thread
+	private final long enqueuedAt = System.nanoTime();
+	private long dequeuedAt;
+	private boolean permitsReserved; // the task was deferred until its permits are due
+	private long throttleReleasedAt;
+	private long requestStartedAt;
+	private int attempts;
+	private String endpoint;
 
-	public NagiosSendTask(Collection<NagiosCheckResult> results, NagiosCheckSender sender, RateLimiter rateLimiter) {
+	/**
+	 * @param throttle    is used to wait for the permits needed by the request
+	 * @param queuedTasks is decremented when the task starts running (may be null)
+	 * @param withReceipt tells whether the task completes a future with a receipt, or with the results
+	 */
+	NagiosSendTask(Collection<NagiosCheckResult> results, NagiosCheckSender sender, Throttle throttle, AtomicInteger queuedTasks,
+			boolean withReceipt) {
 		this.results = results;
 		this.sender = sender;
-		this.rateLimiter = rateLimiter;
+		this.throttle = throttle;
+		this.queuedTasks = queuedTasks;
+		this.completableFuture = withReceipt ? null : new CompletableFuture<Collection<NagiosCheckResult>>();
+		this.receiptFuture = withReceipt ? new CompletableFuture<DeliveryReceipt>() : null;
 	}
 
 	public void run() {
 		try {
-			double waitTime = rateLimiter.acquire(); // Eventually wait because of throttling
-			if (waitTime > 0) {
-				logger.debug("task throttling wait : {}", waitTime);
+			if (!permitsReserved) {
+				dequeuedAt = System.nanoTime();
+				permitsReserved = true;
+				long waitTime = throttle.reserve(results); // Eventually wait because of throttling
+				if (waitTime > 0 && throttle.defer(this, waitTime)) {
+					return; // still counted as queued, runs again once the permits are due
+				}
+				dequeued();
+				if (waitTime > 0) {
+					logger.debug("task throttling wait : {}ns", waitTime);
+					Uninterruptibles.sleepUninterruptibly(waitTime, TimeUnit.NANOSECONDS);
+				}
 			}
-			sender.send(results);
-			completableFuture.complete(results);
+			else {
+				dequeued();
+			}
+			throttleReleasedAt = System.nanoTime();
+			requestStartedAt = System.nanoTime();
+			if (receiptFuture != null) {
+				Delivery delivery = Delivery.send(sender, results);
+				endpoint = delivery.endpoint;
+				attempts = delivery.attempts;
+			}
+			else {
+				sender.send(results);
+			}
+			complete(System.nanoTime());
 		}
 		catch (Throwable e) {
+			fail(e);
+		}
+	}
+
+	private void dequeued() {
+		if (queuedTasks != null) {
+			queuedTasks.decrementAndGet();
+		}
+	}
+
+	private void complete(long respondedAt) {
+		if (receiptFuture != null) {
+			receiptFuture.complete(new DeliveryReceipt(results, batchIds.incrementAndGet(), endpoint, attempts, enqueuedAt, dequeuedAt,
+					throttleReleasedAt, requestStartedAt, respondedAt));
+		}
+		else {
+			completableFuture.complete(results);
+		}
+	}
+
+	void fail(Throwable e) {
+		if (receiptFuture != null) {
+			receiptFuture.completeExceptionally(e);
+		}
+		else {
 			completableFuture.completeExceptionally(e);
 		}
 	}
@@ -47,8 +120,17 @@ public class NagiosSendTask implements Runnable {
 		return results;
 	}
 
+	/**
+	 * @return the future completed with the results, null if the task was created for a receipt
+	 */
 	public CompletableFuture<Collection<NagiosCheckResult>> getCompletableFuture() {
 		return completableFuture;
 	}
-}
 
+	/**
+	 * @return the future completed with the delivery receipt, null if the task was not created for a receipt
+	 */
+	public CompletableFuture<DeliveryReceipt> getReceiptFuture() {
+		return receiptFuture;
+	}
+}
@@ -0,0 +1,152 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.http.HttpException;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.shamu.jsendnrdp.NRDPServerConnectionSettings;
+import ch.shamu.jsendnrdp.NagiosCheckSender;
+
+/**
+ * <p>
+ * Resources shared by many senders : one connection pool and one pool of worker threads. Applications holding a sender per module, token
+ * or NRDP server create them from a single context instead of paying for a connection pool and worker threads each.
+ * <p>
+ * Each sender keeps its own connection settings (url, token, timeout), queue bound and overflow policy. The request rate given to
+ * {@link #newSender(NRDPServerConnectionSettings, int, double)} is the rate of the NRDP server : the senders of one url share it, so that
+ * two senders don't double the rate a server is meant to receive. Like httpclient, the pool keeps at most 2 connections to each NRDP
+ * server unless configured otherwise (see {@link #setDefaultMaxConnectionsPerEndpoint(int)} and
+ * {@link #setMaxConnectionsPerEndpoint(String, int)}), give the servers as many connections as the worker threads sending to them.
+ * <p>
+ * A throttled request doesn't hold a worker while it waits for its permits, it is dispatched again once they are due, so that a throttled
+ * sender doesn't hold back the other senders. Waiting requests are bounded by the context's queue size, all senders included, even those
+ * without a bound of their own : beyond it, throttled requests wait on their worker. The requests of ordered lanes (see {@link NonBlockingNagiosCheckSender#setOrderedLanes(int)})
+ * and the extra requests of a bisection still wait on their worker.
+ */
+public class NagiosSenderContext {
+
+	private final static Logger logger = LoggerFactory.getLogger(NagiosSenderContext.class);
+
+	private final static String THREAD_NAME = "nrdp-shared-sender";
+
+	private final PoolingHttpClientConnectionManager connectionManager;
+	private final CloseableHttpClient httpClient;
+	private final Dispatcher dispatcher;
+	private final List<NagiosCheckSender> senders = new CopyOnWriteArrayList<NagiosCheckSender>();
+	private final ThrottleTimer throttleTimer;
+	private final ConcurrentMap<String, TokenBucket> endpointRates = new ConcurrentHashMap<String, TokenBucket>();
+
+	/**
+	 * @param nbThreads      is the number of worker threads shared by the senders
+	 * @param maxQueueSize   is the maximum number of queued jobs, all senders included. Each sender has its own bound too.
+	 * @param maxConnections is the maximum number of pooled connections, all NRDP servers included
+	 */
+	public NagiosSenderContext(int nbThreads, int maxQueueSize, int maxConnections) {
+		this.connectionManager = NagiosCheckSenderImpl.createConnectionManager(maxConnections,
+				NagiosCheckSenderImpl.DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+		this.httpClient = NagiosCheckSenderImpl.createHttpClient(connectionManager);
+		this.dispatcher = new RingBufferDispatcher(nbThreads, maxQueueSize, THREAD_NAME);
+		this.throttleTimer = new ThrottleTimer(dispatcher);
+	}
+
+	/**
+	 * @param server is the nrdp server connection settings
+	 * @return a blocking sender using the shared connection pool, for example to be decorated before being given to
+	 *         {@link #newSender(NagiosCheckSender, int, double)}
+	 */
+	public NagiosCheckSenderImpl newTransport(NRDPServerConnectionSettings server) {
+		return new NagiosCheckSenderImpl(server, connectionManager, httpClient);
+	}
+
+	/**
+	 * @param server                is the nrdp server connection settings
+	 * @param maxQueueSize          is the maximum number of queued jobs of this sender before starting rejecting new job requests (0 means
+	 *                              only the context's bound applies)
+	 * @param maxRequestsPerSeconds throttling of requests sent to this NRDP server, shared by the senders of the same url (0 means unlimited)
+	 * @return a non blocking sender using the shared connection pool and worker threads
+	 */
+	public NonBlockingNagiosCheckSender newSender(NRDPServerConnectionSettings server, int maxQueueSize, double maxRequestsPerSeconds) {
+		return newSender(newTransport(server), maxQueueSize, maxRequestsPerSeconds);
+	}
+
+	/**
+	 * @param sender                is the (blocking) sender used by the worker threads, usually built on {@link #newTransport}
+	 * @param maxQueueSize          is the maximum number of queued jobs of this sender before starting rejecting new job requests (0 means
+	 *                              only the context's bound applies)
+	 * @param maxRequestsPerSeconds throttling of requests sent by this sender (0 means unlimited), shared by the senders of the same url if
+	 *                              the sender is a transport of this context
+	 * @return a non blocking sender using the shared worker threads
+	 */
+	public NonBlockingNagiosCheckSender newSender(NagiosCheckSender sender, int maxQueueSize, double maxRequestsPerSeconds) {
+		NonBlockingNagiosCheckSender nonBlockingSender = new NonBlockingNagiosCheckSender(sender, maxQueueSize, 0, dispatcher, false);
+		if (maxRequestsPerSeconds > 0) {
+			nonBlockingSender.shareRequestRate(requestRate(sender, maxRequestsPerSeconds));
+		}
+		nonBlockingSender.deferThrottledTasks(throttleTimer);
+		senders.add(nonBlockingSender);
+		return nonBlockingSender;
+	}
+
+	private TokenBucket requestRate(NagiosCheckSender sender, double maxRequestsPerSeconds) {
+		if (!(sender instanceof NagiosCheckSenderImpl)) {
+			return TokenBucket.oneSecondBurst(maxRequestsPerSeconds); // the endpoint is unknown
+		}
+		String url = ((NagiosCheckSenderImpl) sender).getServer().getUrl();
+		TokenBucket requests = endpointRates.computeIfAbsent(url, u -> TokenBucket.oneSecondBurst(maxRequestsPerSeconds));
+		if (requests.getRate() != maxRequestsPerSeconds) {
+			logger.warn("NRDP server {} is already throttled at {} requests per second, ignoring {}", url, requests.getRate(),
+					maxRequestsPerSeconds);
+		}
+		return requests;
+	}
+
+	/**
+	 * @param maxConnections is the maximum number of pooled connections to each NRDP server without a cap of its own (2 by default)
+	 */
+	public void setDefaultMaxConnectionsPerEndpoint(int maxConnections) {
+		connectionManager.setDefaultMaxPerRoute(maxConnections);
+	}
+
+	/**
+	 * Cap the number of connections to one NRDP server, so that one server can't use up the whole pool
+	 *
+	 * @param url            is the url of the NRDP server
+	 * @param maxConnections is the maximum number of pooled connections to this server
+	 */
+	public void setMaxConnectionsPerEndpoint(String url, int maxConnections) {
+		try {
+			connectionManager.setMaxPerRoute(NagiosCheckSenderImpl.routeOf(url), maxConnections);
+		}
+		catch (HttpException e) {
+			throw new IllegalArgumentException("Invalid NRDP server url : " + url, e);
+		}
+	}
+
+	/**
+	 * Shuts down the senders created by this context and the shared resources. No new results should be sent through these senders after
+	 * this method is invoked.
+	 */
+	public void shutdown() {
+		for (NagiosCheckSender sender : senders) {
+			sender.shutdown();
+		}
+		throttleTimer.shutdown();
+		dispatcher.shutdown();
+		try {
+			httpClient.close();
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		logger.info("NRDP sender context shut down ({} senders)", senders.size());
+	}
+}
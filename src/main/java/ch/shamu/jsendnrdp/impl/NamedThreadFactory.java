@@ -0,0 +1,21 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factory giving pretty names to the threads it creates (prefix-0, prefix-1, ...)
+ */
+class NamedThreadFactory implements ThreadFactory {
+
+	private final String prefix;
+	private final AtomicInteger count = new AtomicInteger();
+
+	NamedThreadFactory(String prefix) {
+		this.prefix = prefix;
+	}
+
+	public Thread newThread(Runnable r) {
+		return new Thread(r, prefix + "-" + count.getAndIncrement());
+	}
+}
@@ -1,38 +1,97 @@
 package ch.shamu.jsendnrdp.impl;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.util.concurrent.RateLimiter;
-
+import ch.shamu.jsendnrdp.NRDPException;
 import ch.shamu.jsendnrdp.NRDPServerConnectionSettings;
 import ch.shamu.jsendnrdp.NagiosCheckSender;
+import ch.shamu.jsendnrdp.RejectedResultsException;
+import ch.shamu.jsendnrdp.ShedResultsException;
+import ch.shamu.jsendnrdp.domain.BulkSubmissionSummary;
+import ch.shamu.jsendnrdp.domain.DeliveryReceipt;
 import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
 
 /**
  * <p>
  * This implementation uses a bounded queue of alerts to send (jobs).
  * <p>
- * A ThreadPoolExecutor processes those jobs.<br> Due to the asynchronous nature of this sender, the only exception that can be thrown by the
+ * A pool of worker threads processes those jobs. By default, jobs are handed over to the workers through a lock-free ring buffer
+ * (see {@link RingBufferDispatcher}) so that concurrent callers do not contend on a lock.<br> Due to the asynchronous nature of this sender, the only exception that can be thrown by the
  * "send"<br> method is if the maxQueueSize is reached (IOException). All exception which can occur during job execution are logged.<br> This
  * implementation features a configurable level of concurrency and throttling of job executions.<br> This allows to protect the remote nagios
- * server if an application tries to send too many check results too fast.<br>
+ * server if an application tries to send too many check results too fast.<br> Besides requests per second, the number of check results and
+ * bytes sent per second can be throttled, each with its own burst size.<br>
+ * <p>
+ * Large collections of results can be split into several requests (see {@link #setBatchLimits(int, int)}), which are sent in parallel.
+ * Results which don't fit in memory can be streamed (see {@link #sendAll(Iterator, int)}).
+ * <p>
+ * The fire and forget "send" method doesn't allocate anything per call once warm : its jobs are recycled through a pool, and failures are
+ * counted and reported to an error handler (see {@link #setErrorHandler(BiConsumer)}) instead of completing a future.
+ * <p>
+ * When the queue is full, new results are rejected by default. Other {@link OverflowPolicy overflow policies} shed queued results instead
+ * (see {@link #setOverflowPolicy(OverflowPolicy)}), to keep the most valuable ones under overload.
+ * <p>
+ * Results are sent in parallel, so two results of the same service sent back to back may reach Nagios out of order. Ordered lanes (see
+ * {@link #setOrderedLanes(int)}) keep the results of each service in order without giving up parallel sending.
  */
 public class NonBlockingNagiosCheckSender implements NagiosCheckSender {
 
-	private final static Logger logger = LoggerFactory.getLogger(NagiosCheckSenderImpl.class);
+	private final static Logger logger = LoggerFactory.getLogger(NonBlockingNagiosCheckSender.class);
 
-	private final int maxQueueSize;
-	private final ThreadPoolExecutor executor;
+	private final static String THREAD_NAME = "nrdp-sender";
+	private final static int MAX_PREALLOCATED_QUEUE_SIZE = 1 << 16; // about 1MB of slots, larger backlogs are not preallocated
+	private final static BatchSplitter STREAMING_SPLITTER = new BatchSplitter(1000, 0); // used when streaming without batch limits
+	private final static long QUEUE_FULL_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	private final static int MAX_POOLED_TASKS = 1024;
+	private final static BiConsumer<Collection<NagiosCheckResult>, Throwable> LOGGING_ERROR_HANDLER = (results, e) -> logger
+			.error("Exception while sending nagios check result to NRDP server: ", e);
+
+	private volatile int maxQueueSize;
+	private final Dispatcher dispatcher;
+	private final boolean ownsDispatcher;
 	private final NagiosCheckSender sender;
-	private final RateLimiter rateLimiter;
+	private final MeteredSender meteredSender;
+	private volatile Throttle throttle = Throttle.UNLIMITED; // immutable, replaced under throttleLock
+	private final Object throttleLock = new Object();
+	private final AtomicInteger queuedTasks = new AtomicInteger();
+	private volatile BatchSplitter batchSplitter = BatchSplitter.UNLIMITED;
+	private final RingBuffer<PooledSendTask> taskPool;
+	private final BiConsumer<Collection<NagiosCheckResult>, Throwable> failureHandler = this::sendFailed;
+	private volatile BiConsumer<Collection<NagiosCheckResult>, Throwable> errorHandler = LOGGING_ERROR_HANDLER;
+	private final AtomicLong failedRequests = new AtomicLong();
+	private final AtomicLong failedResults = new AtomicLong();
+	private volatile OverflowPolicy overflowPolicy = OverflowPolicy.REJECT_NEW;
+	private final SheddingBacklog backlog = new SheddingBacklog();
+	private final Runnable drainJob = this::runOldestQueued;
+	private final AtomicLongArray shedResults = new AtomicLongArray(OverflowPolicy.values().length);
+	private volatile SerialLanes lanes;
+	private volatile ThrottleTimer throttleTimer;
 
 	/**
 	 * Bean that knows how to send nagios alerts in a non blocking way, has configurable concurrency level and supports throttling
@@ -56,20 +115,28 @@ public class NonBlockingNagiosCheckSender implements NagiosCheckSender {
 	 *                              jobs until OutOfMemory, please don't...) jobs currently in execution are not taken into account when
 	 *                              computing queue size.
 	 * @param maxRequestsPerSeconds throttling of requests sent to the server, it's the maximum number of requests send to the server per second
-	 *                              (0 means unlimited). The jobs currently in execution will block in order to respect this rate.
+	 *                              (0 means unlimited). The jobs currently in execution will block in order to respect this rate. Up to one
+	 *                              second of unused rate can be caught up, see {@link #setRequestRateLimit(double, int)} to change the burst.
 	 */
 	public NonBlockingNagiosCheckSender(NRDPServerConnectionSettings server, int nbThreads, int maxQueueSize, double maxRequestsPerSeconds) {
 
-		this(server, maxQueueSize, maxRequestsPerSeconds,
-				new ScheduledThreadPoolExecutor(nbThreads, new ThreadFactory() {
-					private int count = 0;
+		this(new NagiosCheckSenderImpl(server), maxQueueSize, maxRequestsPerSeconds, createDispatcher(nbThreads, maxQueueSize));
 
-					public Thread newThread(Runnable r) {
-						// pretty naming of threads
-						return new Thread(r, "nrdp-sender" + "-" + count++);
-					}
-				}));
+	}
 
+	/**
+	 * Bean that knows how to send nagios alerts in a non blocking way, has configurable concurrency level and supports throttling
+	 *
+	 * @param sender                is the (blocking) sender used by the worker threads, for example a {@link BisectingNagiosCheckSender}
+	 * @param nbThreads             is the number of worker threads for sending nagios alerts (concurrency level)
+	 * @param maxQueueSize          is the maximum number of queued jobs before starting rejecting new job requests (IOException) (0 means queue
+	 *                              jobs until OutOfMemory, please don't...) jobs currently in execution are not taken into account when
+	 *                              computing queue size.
+	 * @param maxRequestsPerSeconds throttling of requests sent to the server, it's the maximum number of requests send to the server per second
+	 *                              (0 means unlimited). The jobs currently in execution will block in order to respect this rate.
+	 */
+	public NonBlockingNagiosCheckSender(NagiosCheckSender sender, int nbThreads, int maxQueueSize, double maxRequestsPerSeconds) {
+		this(sender, maxQueueSize, maxRequestsPerSeconds, createDispatcher(nbThreads, maxQueueSize));
 	}
 
 	/**
@@ -86,53 +153,939 @@ public class NonBlockingNagiosCheckSender implements NagiosCheckSender {
 	public NonBlockingNagiosCheckSender(NRDPServerConnectionSettings server, int maxQueueSize,
 			double maxRequestsPerSeconds, ThreadPoolExecutor executor) {
 
-		this.sender = new NagiosCheckSenderImpl(server);
+		this(new NagiosCheckSenderImpl(server), maxQueueSize, maxRequestsPerSeconds, new ExecutorDispatcher(executor, maxQueueSize));
+	}
+
+	private NonBlockingNagiosCheckSender(NagiosCheckSender sender, int maxQueueSize, double maxRequestsPerSeconds, Dispatcher dispatcher) {
+		this(sender, maxQueueSize, maxRequestsPerSeconds, dispatcher, true);
+	}
+
+	/**
+	 * Sender using a dispatcher shared with other senders (see {@link NagiosSenderContext}), the dispatcher is not shut down when this sender
+	 * shuts down
+	 */
+	NonBlockingNagiosCheckSender(NagiosCheckSender sender, int maxQueueSize, double maxRequestsPerSeconds, Dispatcher dispatcher,
+			boolean ownsDispatcher) {
+
+		this.sender = sender;
+
+		this.meteredSender = new MeteredSender(sender);
+
+		this.dispatcher = dispatcher;
+
+		this.ownsDispatcher = ownsDispatcher;
+
+		if (maxRequestsPerSeconds > 0) { // 0 means FIRE AT WILL !
+			this.throttle = throttle.withRequestBucket(TokenBucket.oneSecondBurst(maxRequestsPerSeconds));
+		}
+
+		this.maxQueueSize = maxQueueSize;
+
+		this.taskPool = new RingBuffer<PooledSendTask>(maxQueueSize > 0 ? Math.min(maxQueueSize, MAX_POOLED_TASKS) : MAX_POOLED_TASKS);
+
+		if (sender instanceof BisectingNagiosCheckSender) {
+			((BisectingNagiosCheckSender) sender).throttleExtraRequests(batch -> throttle.await(batch));
+		}
+	}
+
+	private static Dispatcher createDispatcher(int nbThreads, int maxQueueSize) {
+		if (maxQueueSize > 0 && maxQueueSize <= MAX_PREALLOCATED_QUEUE_SIZE) {
+			return new RingBufferDispatcher(nbThreads, maxQueueSize, THREAD_NAME);
+		}
+		// an unbounded (or large) backlog isn't worth preallocating, the executor queue grows on demand
+		return new ExecutorDispatcher(new ThreadPoolExecutor(nbThreads, nbThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				new NamedThreadFactory(THREAD_NAME)), maxQueueSize);
+	}
+
+	/**
+	 * Limit the size of the requests sent to the NRDP server. Collections of results exceeding these limits are split into several requests,
+	 * sent in parallel. Each request counts as one job in the queue.
+	 *
+	 * @param maxResultsPerRequest is the maximum number of check results per request (0 means unlimited)
+	 * @param maxBytesPerRequest   is the maximum size of the url encoded XML document sent in one request (0 means unlimited). A single
+	 *                             result exceeding this size is sent alone.
+	 */
+	public void setBatchLimits(int maxResultsPerRequest, int maxBytesPerRequest) {
+		this.batchSplitter = new BatchSplitter(maxResultsPerRequest, maxBytesPerRequest);
+	}
+
+	/**
+	 * Set the callback notified of the failures of the results sent by {@link #send(Collection)}. It is called by the worker threads, and
+	 * should not block them.
+	 *
+	 * @param errorHandler receives the results of the failed request and the failure, null restores the default handler which logs the
+	 *                     failure
+	 */
+	public void setErrorHandler(BiConsumer<Collection<NagiosCheckResult>, Throwable> errorHandler) {
+		this.errorHandler = errorHandler != null ? errorHandler : LOGGING_ERROR_HANDLER;
+	}
+
+	/**
+	 * @return the number of requests sent by {@link #send(Collection)} which failed
+	 */
+	public long getFailedRequests() {
+		return failedRequests.get();
+	}
 
-		this.executor = executor;
+	/**
+	 * @return the number of check results sent by {@link #send(Collection)} which failed
+	 */
+	public long getFailedResults() {
+		return failedResults.get();
+	}
 
-		if (maxRequestsPerSeconds == 0d) {
-			this.rateLimiter = RateLimiter.create(Double.MAX_VALUE); // FIRE AT WILL !
-		} else {
-			this.rateLimiter = RateLimiter.create(maxRequestsPerSeconds);
+	/**
+	 * Choose what happens to new results when the queue is full. Unless the policy is {@link OverflowPolicy#REJECT_NEW}, queued requests wait
+	 * in a backlog where they can be shed, which costs a lock and some bookkeeping per request. Streaming submissions (see
+	 * {@link #sendAll(Iterator, int)}) never shed results, they wait for room in the queue.
+	 *
+	 * @param overflowPolicy is the policy applied from now on
+	 */
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		if (lanes != null && overflowPolicy != OverflowPolicy.REJECT_NEW) {
+			throw new IllegalStateException("Queued results can't be shed from ordered lanes");
+		}
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * <p>
+	 * Keep the results of each service in order : results are hashed to lanes by (host, service), the requests of a lane are sent one after
+	 * the other, in the order they were queued, while different lanes are sent concurrently. Collections of results spanning several lanes
+	 * are split into one request per lane (at least), their future completes once all of them are done.
+	 * <p>
+	 * A slow request only holds back its own lane, so there should be a few lanes per worker thread. Lanes should be set before sending
+	 * results, and only go with the {@link OverflowPolicy#REJECT_NEW} overflow policy.
+	 *
+	 * @param lanes is the number of lanes (0 means results are sent in parallel, in no particular order)
+	 */
+	public void setOrderedLanes(int lanes) {
+		if (lanes > 0 && overflowPolicy != OverflowPolicy.REJECT_NEW) {
+			throw new IllegalStateException("Queued results can't be shed from ordered lanes");
+		}
+		synchronized (throttleLock) {
+			this.lanes = lanes > 0 ? new SerialLanes(lanes, dispatcher, this::laneRefused) : null;
+			this.throttle = throttle.withTimer(lanes > 0 ? null : throttleTimer); // a deferred task would be overtaken by the next one of its lane
 		}
+	}
+
+	/**
+	 * Give the worker back while a throttled task waits for its permits, for senders sharing their workers with other senders (see
+	 * {@link NagiosSenderContext}). Tasks of ordered lanes still wait on their worker.
+	 */
+	void deferThrottledTasks(ThrottleTimer timer) {
+		synchronized (throttleLock) {
+			this.throttleTimer = timer;
+			this.throttle = throttle.withTimer(lanes == null ? timer : null);
+		}
+	}
+
+	/**
+	 * Share a request rate with the other senders of the same NRDP server (see {@link NagiosSenderContext}), until the request rate of this
+	 * sender is set again
+	 */
+	void shareRequestRate(TokenBucket requests) {
+		synchronized (throttleLock) {
+			this.throttle = throttle.withRequestBucket(requests);
+		}
+	}
 
+	/**
+	 * @param policy is the policy which shed the results
+	 * @return the number of queued results shed by the given policy, or for {@link OverflowPolicy#REJECT_NEW} the number of new results
+	 *         rejected because the queue was full (whatever the policy)
+	 */
+	public long getShedResults(OverflowPolicy policy) {
+		return shedResults.get(policy.ordinal());
+	}
+
+	/**
+	 * @return the number of requests queued, waiting for a worker thread
+	 */
+	public int getQueuedRequests() {
+		return queuedTasks.get();
+	}
+
+	/**
+	 * @return the number of requests being sent by the worker threads
+	 */
+	public int getInFlightRequests() {
+		return meteredSender.inFlight.get();
+	}
+
+	/**
+	 * @return the number of requests successfully sent since this sender was created
+	 */
+	public long getDeliveredRequests() {
+		return meteredSender.deliveredRequests.get();
+	}
+
+	/**
+	 * @return the number of check results successfully sent since this sender was created
+	 */
+	public long getDeliveredResults() {
+		return meteredSender.deliveredResults.get();
+	}
+
+	/**
+	 * @return the number of requests which failed since this sender was created, whatever the way the results were sent
+	 */
+	public long getSendErrors() {
+		return meteredSender.errors.get();
+	}
+
+	public int getMaxQueueSize() {
+		return maxQueueSize;
+	}
+
+	/**
+	 * Change the bound of the queue. Requests already queued beyond a lowered bound are still sent.
+	 *
+	 * @param maxQueueSize is the maximum number of queued requests (0 means unbounded), it can't exceed the capacity of the dispatcher, i.e.
+	 *                     the maxQueueSize given at construction when it was preallocated
+	 */
+	public void setMaxQueueSize(int maxQueueSize) {
+		int capacity = dispatcher.getCapacity();
+		if (maxQueueSize < 0 || capacity > 0 && (maxQueueSize == 0 || maxQueueSize > capacity)) {
+			throw new IllegalArgumentException("The queue size must be between 1 and the capacity of the dispatcher (" + capacity + ") : "
+					+ maxQueueSize);
+		}
 		this.maxQueueSize = maxQueueSize;
+		logger.info("NRDP sender queue size : {}", maxQueueSize);
+	}
+
+	/**
+	 * @return the number of worker threads, which may be shared with other senders (see {@link NagiosSenderContext})
+	 */
+	public int getPoolSize() {
+		return dispatcher.getPoolSize();
+	}
+
+	/**
+	 * Change the number of worker threads (concurrency level), which may be shared with other senders (see {@link NagiosSenderContext})
+	 */
+	public void setPoolSize(int nbThreads) {
+		dispatcher.setPoolSize(nbThreads);
+		logger.info("NRDP sender threads : {}", nbThreads);
+	}
+
+	/**
+	 * @return the maximum number of requests per second (0 means unlimited)
+	 */
+	public double getRequestRateLimit() {
+		TokenBucket requests = throttle.getRequests();
+		return requests == null ? 0 : requests.getRate();
+	}
+
+	int getRequestBurst() {
+		TokenBucket requests = throttle.getRequests();
+		return requests == null ? 1 : (int) requests.getBurst();
+	}
+
+	/**
+	 * @return the connection settings of the NRDP server, null if the results are not sent directly to a NRDP server (decorated sender)
+	 */
+	NRDPServerConnectionSettings getServerSettings() {
+		return sender instanceof NagiosCheckSenderImpl ? ((NagiosCheckSenderImpl) sender).getServer() : null;
+	}
+
+	/**
+	 * Throttle the number of requests sent to the server per second.
+	 *
+	 * @param requestsPerSecond is the maximum number of requests sent per second (0 means unlimited)
+	 * @param burst             is the number of requests that can be sent at once after an idle period
+	 */
+	public void setRequestRateLimit(double requestsPerSecond, int burst) {
+		synchronized (throttleLock) {
+			this.throttle = throttle.withRequestRate(requestsPerSecond, burst);
+		}
+	}
+
+	/**
+	 * Throttle the number of check results sent to the server per second. Batches are never larger than the burst size.
+	 *
+	 * @param resultsPerSecond is the maximum number of check results sent per second (0 means unlimited)
+	 * @param burst            is the number of results that can be sent at once after an idle period
+	 */
+	public void setResultRateLimit(double resultsPerSecond, int burst) {
+		synchronized (throttleLock) {
+			this.throttle = throttle.withResultRate(resultsPerSecond, burst);
+		}
+	}
+
+	/**
+	 * Throttle the number of bytes (url encoded XML) sent to the server per second. Batches are never larger than the burst size, unless they
+	 * contain a single result.
+	 *
+	 * @param bytesPerSecond is the maximum number of bytes sent per second (0 means unlimited)
+	 * @param burst          is the number of bytes that can be sent at once after an idle period
+	 */
+	public void setByteRateLimit(double bytesPerSecond, int burst) {
+		synchronized (throttleLock) {
+			this.throttle = throttle.withByteRate(bytesPerSecond, burst);
+		}
 	}
 
 	/**
 	 * Send the check results asynchronously and return a completableFuture so that callers can handle exceptions and completion.
+	 * <p>
+	 * If the results were split into several requests, the future completes once all of them are done. If some of those requests were
+	 * rejected, it completes exceptionally with the first failure (other failures are suppressed), or with a {@link RejectedResultsException}
+	 * aggregating the rejected results when the requests were sent through a {@link BisectingNagiosCheckSender}. See
+	 * {@link #sendEachAsync(Collection)} to fail only the rejected results.
 	 */
 	public CompletableFuture<Collection<NagiosCheckResult>> sendAsync(Collection<NagiosCheckResult> checkResults) throws IOException {
-		// deal with binding of the queue
-		if (maxQueueSize > 0 && executor.getQueue().size() >= maxQueueSize) {
-			throw new IOException("Nagios check result could not be submitted : maximum number of queued results to send reached ("
-					+ maxQueueSize + ")");
+		List<Collection<NagiosCheckResult>> batches = split(throttle.limit(batchSplitter), checkResults);
+		List<NagiosSendTask> tasks = dispatchAll(batches, false);
+		if (batches.size() == 1) {
+			return tasks.get(0).getCompletableFuture();
+		}
+		List<CompletableFuture<Collection<NagiosCheckResult>>> futures = new ArrayList<CompletableFuture<Collection<NagiosCheckResult>>>();
+		for (NagiosSendTask task : tasks) {
+			futures.add(task.getCompletableFuture());
+		}
+		return aggregate(checkResults, futures);
+	}
+
+	/**
+	 * Same as {@link #sendAsync(Collection)}, but with one future per check result, in the order of the given collection. Each future
+	 * completes with its result once delivered, or exceptionally if its request failed. When the requests are sent through a
+	 * {@link BisectingNagiosCheckSender}, only the futures of the rejected results complete exceptionally (with the
+	 * {@link RejectedResultsException} of their request), the others complete normally.
+	 */
+	public List<CompletableFuture<NagiosCheckResult>> sendEachAsync(Collection<NagiosCheckResult> checkResults) throws IOException {
+		List<NagiosSendTask> tasks = dispatchAll(split(throttle.limit(batchSplitter), checkResults), false);
+		Map<NagiosCheckResult, CompletableFuture<NagiosCheckResult>> futures = new IdentityHashMap<NagiosCheckResult,
+				CompletableFuture<NagiosCheckResult>>(checkResults.size() * 2);
+		for (NagiosCheckResult r : checkResults) {
+			futures.put(r, new CompletableFuture<NagiosCheckResult>());
+		}
+		for (NagiosSendTask task : tasks) {
+			task.getCompletableFuture().whenComplete((sent, e) -> {
+				Throwable failure = e instanceof CompletionException ? e.getCause() : e;
+				Set<NagiosCheckResult> rejected = Collections.newSetFromMap(new IdentityHashMap<NagiosCheckResult, Boolean>());
+				if (failure instanceof RejectedResultsException) {
+					rejected.addAll(((RejectedResultsException) failure).getRejectedResults());
+				}
+				for (NagiosCheckResult r : task.getResults()) {
+					if (failure == null || failure instanceof RejectedResultsException && !rejected.contains(r)) {
+						futures.get(r).complete(r);
+					}
+					else {
+						futures.get(r).completeExceptionally(failure);
+					}
+				}
+			});
+		}
+		List<CompletableFuture<NagiosCheckResult>> eachResult = new ArrayList<CompletableFuture<NagiosCheckResult>>(checkResults.size());
+		for (NagiosCheckResult r : checkResults) {
+			eachResult.add(futures.get(r));
+		}
+		return eachResult;
+	}
+
+	/**
+	 * Same as {@link #sendAsync(Collection)}, but the future completes with one {@link DeliveryReceipt} per request sent (usually one), giving
+	 * the time spent in the queue, waiting on throttling and waiting for the NRDP server. If a request failed, the future completes with a
+	 * {@link CompletionException} wrapping the first failure.
+	 */
+	public CompletableFuture<List<DeliveryReceipt>> sendAsyncWithReceipts(Collection<NagiosCheckResult> checkResults) throws IOException {
+		List<NagiosSendTask> tasks = dispatchAll(split(throttle.limit(batchSplitter), checkResults), true);
+		final List<CompletableFuture<DeliveryReceipt>> futures = new ArrayList<CompletableFuture<DeliveryReceipt>>(tasks.size());
+		for (NagiosSendTask task : tasks) {
+			futures.add(task.getReceiptFuture());
+		}
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).thenApply(v -> {
+			List<DeliveryReceipt> receipts = new ArrayList<DeliveryReceipt>(futures.size());
+			for (CompletableFuture<DeliveryReceipt> future : futures) {
+				receipts.add(future.join());
+			}
+			return receipts;
+		});
+	}
+
+	private List<Collection<NagiosCheckResult>> split(BatchSplitter splitter, Collection<NagiosCheckResult> checkResults) {
+		SerialLanes lanes = this.lanes;
+		return lanes != null ? lanes.split(splitter, checkResults) : splitter.split(checkResults);
+	}
+
+	private List<NagiosSendTask> dispatchAll(List<Collection<NagiosCheckResult>> batches, boolean withReceipt) throws IOException {
+		if (overflowPolicy != OverflowPolicy.REJECT_NEW) {
+			return admitAll(batches, withReceipt);
+		}
+		int maxQueueSize = this.maxQueueSize;
+		if (maxQueueSize > 0 && batches.size() > maxQueueSize) {
+			return dispatchChained(batches, withReceipt);
+		}
+		reserve(batches.size(), batches);
+		List<NagiosSendTask> tasks = new ArrayList<NagiosSendTask>(batches.size());
+		for (int i = 0; i < batches.size(); i++) {
+			try {
+				tasks.add(dispatch(batches.get(i), withReceipt));
+			}
+			catch (IOException e) { // only happens when the dispatcher's executor is shared with other senders
+				queuedTasks.addAndGet(-(batches.size() - i - 1));
+				if (tasks.isEmpty()) {
+					throw e;
+				}
+				NagiosSendTask failed = new NagiosSendTask(batches.get(i), meteredSender, throttle, null, withReceipt);
+				failed.fail(e);
+				tasks.add(failed);
+				break;
+			}
+		}
+		return tasks;
+	}
+
+	/**
+	 * A submission split into more requests than the queue can hold is admitted as slots free up : the requests fitting in the free slots are
+	 * queued right away, and each one completing queues the next pending request. A pending request which finds the queue full then fails.
+	 */
+	private List<NagiosSendTask> dispatchChained(List<Collection<NagiosCheckResult>> batches, boolean withReceipt) throws IOException {
+		int slots = tryReserveUpTo(batches.size());
+		if (slots == 0) {
+			throw queueFull(batches);
+		}
+		List<NagiosSendTask> tasks = new ArrayList<NagiosSendTask>(batches.size());
+		for (Collection<NagiosCheckResult> batch : batches) {
+			tasks.add(new NagiosSendTask(batch, meteredSender, throttle, queuedTasks, withReceipt));
+		}
+		AtomicInteger pending = new AtomicInteger(slots);
+		for (int i = 0; i < slots; i++) {
+			NagiosSendTask task = tasks.get(i);
+			if (offerReserved(task, task.getResults())) {
+				completion(task).whenComplete((v, e) -> dispatchNext(tasks, pending));
+			}
+			else {
+				queuedTasks.decrementAndGet();
+				task.fail(queueFull(task.getResults().size()));
+				dispatchNext(tasks, pending);
+			}
+		}
+		return tasks;
+	}
+
+	private void dispatchNext(List<NagiosSendTask> tasks, AtomicInteger pending) {
+		int next;
+		while ((next = pending.getAndIncrement()) < tasks.size()) {
+			NagiosSendTask task = tasks.get(next);
+			if (tryReserve(1)) {
+				if (offerReserved(task, task.getResults())) {
+					completion(task).whenComplete((v, e) -> dispatchNext(tasks, pending));
+					return;
+				}
+				queuedTasks.decrementAndGet();
+			}
+			task.fail(queueFull(task.getResults().size()));
+		}
+	}
+
+	private static CompletableFuture<?> completion(NagiosSendTask task) {
+		return task.getCompletableFuture() != null ? task.getCompletableFuture() : task.getReceiptFuture();
+	}
+
+	/**
+	 * Each request of the submission is queued on its own, possibly in place of a shed one
+	 */
+	private List<NagiosSendTask> admitAll(List<Collection<NagiosCheckResult>> batches, boolean withReceipt) throws IOException {
+		List<NagiosSendTask> tasks = new ArrayList<NagiosSendTask>(batches.size());
+		IOException rejection = null;
+		boolean admitted = false;
+		for (Collection<NagiosCheckResult> batch : batches) {
+			NagiosSendTask task = new NagiosSendTask(batch, meteredSender, throttle, queuedTasks, withReceipt);
+			if (admit(task, batch)) {
+				admitted = true;
+			}
+			else {
+				rejection = queueFull(batch.size());
+				task.fail(rejection);
+			}
+			tasks.add(task);
+		}
+		if (!admitted) {
+			throw rejection;
+		}
+		return tasks;
+	}
+
+	/**
+	 * <p>
+	 * Send a (possibly huge) sequence of check results, without holding them all in memory.
+	 * <p>
+	 * Results are pulled lazily by the calling thread and sent in requests sized according to the batch limits (1000 results per request if
+	 * none were set). The calling thread blocks while maxInFlightRequests requests are queued or being sent, or while the queue is full, so
+	 * that memory usage is proportional to the number of requests in flight, not to the number of results.
+	 *
+	 * @param checkResults        is the sequence of results to send
+	 * @param maxInFlightRequests is the maximum number of requests of this submission queued or being sent at the same time (at least 1)
+	 * @return a future completing once all the results have been sent, with a summary of the submission. Errors are logged and counted in the
+	 *         summary, they don't interrupt the submission.
+	 * @throws InterruptedIOException if the calling thread is interrupted while waiting
+	 */
+	public CompletableFuture<BulkSubmissionSummary> sendAll(Iterator<NagiosCheckResult> checkResults, int maxInFlightRequests)
+			throws IOException {
+		if (maxInFlightRequests < 1) { // the submission would wait forever for its first request
+			throw new IllegalArgumentException("The maximum number of requests in flight must be at least 1 : " + maxInFlightRequests);
+		}
+		BatchSplitter splitter = throttle.limit(batchSplitter.isUnlimited() ? STREAMING_SPLITTER : batchSplitter);
+		Semaphore inFlight = new Semaphore(maxInFlightRequests);
+		BulkSubmission submission = new BulkSubmission();
+		try {
+			List<NagiosCheckResult> batch = new ArrayList<NagiosCheckResult>();
+			long batchBytes = CheckResultXml.ENVELOPE_ENCODED_SIZE;
+			while (checkResults.hasNext()) {
+				NagiosCheckResult r = checkResults.next();
+				int size = splitter.sizeOf(r);
+				if (!batch.isEmpty() && splitter.isFull(batch.size(), batchBytes, size)) {
+					stream(batch, inFlight, submission);
+					batch = new ArrayList<NagiosCheckResult>();
+					batchBytes = CheckResultXml.ENVELOPE_ENCODED_SIZE;
+				}
+				batch.add(r);
+				batchBytes += size;
+			}
+			if (!batch.isEmpty()) {
+				stream(batch, inFlight, submission);
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			submission.dispatchDone(); // requests already dispatched still complete the future
+			throw e;
+		}
+		return submission.dispatchDone();
+	}
+
+	/**
+	 * Same as {@link #sendAll(Iterator, int)}, the stream is consumed sequentially by the calling thread
+	 */
+	public CompletableFuture<BulkSubmissionSummary> sendAll(Stream<NagiosCheckResult> checkResults, int maxInFlightRequests) throws IOException {
+		return sendAll(checkResults.iterator(), maxInFlightRequests);
+	}
+
+	/**
+	 * Same as {@link #sendAll(Iterator, int)}, the spliterator is consumed sequentially by the calling thread
+	 */
+	public CompletableFuture<BulkSubmissionSummary> sendAll(Spliterator<NagiosCheckResult> checkResults, int maxInFlightRequests)
+			throws IOException {
+		return sendAll(Spliterators.iterator(checkResults), maxInFlightRequests);
+	}
+
+	private void stream(Collection<NagiosCheckResult> batch, Semaphore inFlight, BulkSubmission submission) throws IOException {
+		SerialLanes lanes = this.lanes;
+		if (lanes == null || lanes.isSingleLane(batch)) {
+			streamRequest(batch, inFlight, submission);
+			return;
+		}
+		for (Collection<NagiosCheckResult> laneBatch : lanes.split(BatchSplitter.UNLIMITED, batch)) {
+			streamRequest(laneBatch, inFlight, submission);
+		}
+	}
+
+	private void streamRequest(final Collection<NagiosCheckResult> batch, final Semaphore inFlight, final BulkSubmission submission)
+			throws IOException {
+		try {
+			inFlight.acquire();
+			while (!tryReserve(1)) { // wait for the queue to drain instead of failing
+				LockSupport.parkNanos(QUEUE_FULL_BACKOFF_NANOS);
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to send nagios check results");
+		}
+		NagiosSendTask task;
+		try {
+			task = dispatch(batch, false);
+		}
+		catch (IOException e) {
+			inFlight.release();
+			throw e;
+		}
+		submission.requestDispatched();
+		task.getCompletableFuture().whenComplete((sent, e) -> {
+			inFlight.release();
+			submission.requestDone(batch, e);
+		});
+	}
+
+	/**
+	 * deal with binding of the queue : all the requests of a submission fitting in the queue are accepted, or none
+	 */
+	private void reserve(int tasks, Collection<? extends Collection<NagiosCheckResult>> batches) throws IOException {
+		if (!tryReserve(tasks)) {
+			throw queueFull(batches);
+		}
+	}
+
+	/**
+	 * Single request counterpart of {@link #reserve(int, Collection)}, which doesn't allocate
+	 */
+	private void reserve(Collection<NagiosCheckResult> batch) throws IOException {
+		if (!tryReserve(1)) {
+			throw queueFull(batch.size());
+		}
+	}
+
+	private IOException queueFull(Collection<? extends Collection<NagiosCheckResult>> rejectedBatches) {
+		int results = 0;
+		for (Collection<NagiosCheckResult> batch : rejectedBatches) {
+			results += batch.size();
+		}
+		return queueFull(results);
+	}
+
+	private IOException queueFull(int rejectedResults) {
+		shedResults.addAndGet(OverflowPolicy.REJECT_NEW.ordinal(), rejectedResults);
+		return new IOException("Nagios check result could not be submitted : maximum number of queued results to send reached ("
+				+ maxQueueSize + ")");
+	}
+
+	private boolean tryReserve(int tasks) {
+		int maxQueueSize = this.maxQueueSize;
+		while (true) {
+			int queued = queuedTasks.get();
+			if (maxQueueSize > 0 && queued + tasks > maxQueueSize) {
+				return false;
+			}
+			if (queuedTasks.compareAndSet(queued, queued + tasks)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of slots reserved, as many as free up to the given number of tasks
+	 */
+	private int tryReserveUpTo(int tasks) {
+		int maxQueueSize = this.maxQueueSize;
+		while (true) {
+			int queued = queuedTasks.get();
+			int reserved = maxQueueSize > 0 ? Math.min(tasks, maxQueueSize - queued) : tasks;
+			if (reserved <= 0) {
+				return 0;
+			}
+			if (queuedTasks.compareAndSet(queued, queued + reserved)) {
+				return reserved;
+			}
+		}
+	}
+
+	private NagiosSendTask dispatch(Collection<NagiosCheckResult> batch, boolean withReceipt) throws IOException {
+		NagiosSendTask task = new NagiosSendTask(batch, meteredSender, throttle, queuedTasks, withReceipt);
+		if (!offerReserved(task, batch)) {
+			queuedTasks.decrementAndGet();
+			throw queueFull(batch.size());
+		}
+		return task;
+	}
+
+	/**
+	 * Queue a job without reservation : reserve a slot, or else make room according to the overflow policy
+	 * @return false if the job was rejected
+	 */
+	private boolean admit(Runnable task, Collection<NagiosCheckResult> batch) {
+		if (tryReserve(1)) {
+			if (offerReserved(task, batch)) {
+				return true;
+			}
+			queuedTasks.decrementAndGet();
+			return false;
+		}
+		OverflowPolicy policy = overflowPolicy;
+		if (policy == OverflowPolicy.REJECT_NEW) {
+			return false;
 		}
-		NagiosSendTask task = new NagiosSendTask(checkResults, sender, rateLimiter);
-		executor.submit(task);
-		return task.getCompletableFuture();
+		SheddingBacklog.Entry shed = backlog.replace(policy, new SheddingBacklog.Entry(task, batch));
+		if (shed == null) {
+			return false;
+		}
+		// the new job takes the slot and the drain job of the shed one
+		shedResults.addAndGet(policy.ordinal(), shed.results.size());
+		fail(shed, new ShedResultsException(shed.results.size() + " queued nagios check results were dropped to make room for new ones ("
+				+ policy + ")", shed.results));
+		return true;
 	}
 
 	/**
-	 * Asynchronously sends check results to Nagios. Exceptions while sending the results are logged. If you need a custom handling of
-	 * exceptions, call sendAsync and handle them using the returned completable future
+	 * Queue a job for which a slot was reserved. Unless new results are simply rejected when the queue is full, the job goes to the backlog
+	 * and the dispatcher gets a drain job instead, so that the job can still be shed.
+	 * @return false if the dispatcher refused the job
+	 */
+	private boolean offerReserved(Runnable task, Collection<NagiosCheckResult> batch) {
+		SerialLanes lanes = this.lanes;
+		if (lanes != null) {
+			lanes.execute(batch, task);
+			return true;
+		}
+		if (overflowPolicy == OverflowPolicy.REJECT_NEW) {
+			return dispatcher.offer(task);
+		}
+		SheddingBacklog.Entry entry = new SheddingBacklog.Entry(task, batch);
+		backlog.add(entry);
+		if (dispatcher.offer(drainJob)) {
+			return true;
+		}
+		if (backlog.removeIfQueued(entry)) {
+			return false;
+		}
+		// a drain job already picked this job, another queued job is left without drain job
+		SheddingBacklog.Entry orphan = backlog.poll();
+		if (orphan != null) {
+			queuedTasks.decrementAndGet();
+			fail(orphan, queueFull(orphan.results.size()));
+		}
+		return true;
+	}
+
+	private void laneRefused(Runnable task, IOException e) {
+		queuedTasks.decrementAndGet();
+		if (task instanceof NagiosSendTask) {
+			((NagiosSendTask) task).fail(e);
+		}
+		else {
+			((PooledSendTask) task).fail(e);
+		}
+	}
+
+	private void runOldestQueued() {
+		SheddingBacklog.Entry entry = backlog.poll();
+		if (entry != null) {
+			entry.task.run();
+		}
+	}
+
+	private void fail(SheddingBacklog.Entry entry, Throwable e) {
+		if (entry.task instanceof NagiosSendTask) {
+			((NagiosSendTask) entry.task).fail(e);
+		}
+		else {
+			sendFailed(entry.results, e);
+			((PooledSendTask) entry.task).release();
+		}
+	}
+
+	private static CompletableFuture<Collection<NagiosCheckResult>> aggregate(final Collection<NagiosCheckResult> checkResults,
+			final List<CompletableFuture<Collection<NagiosCheckResult>>> futures) {
+		final CompletableFuture<Collection<NagiosCheckResult>> aggregated = new CompletableFuture<Collection<NagiosCheckResult>>();
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).whenComplete((v, e) -> {
+			if (e == null) {
+				aggregated.complete(checkResults);
+				return;
+			}
+			List<Throwable> failures = new ArrayList<Throwable>();
+			List<NagiosCheckResult> rejected = new ArrayList<NagiosCheckResult>();
+			List<NagiosCheckResult> delivered = new ArrayList<NagiosCheckResult>();
+			boolean onlyRejections = true;
+			for (CompletableFuture<Collection<NagiosCheckResult>> future : futures) {
+				try {
+					delivered.addAll(future.join());
+				}
+				catch (CompletionException failure) {
+					Throwable cause = failure.getCause();
+					failures.add(cause);
+					if (cause instanceof RejectedResultsException) {
+						rejected.addAll(((RejectedResultsException) cause).getRejectedResults());
+						delivered.addAll(((RejectedResultsException) cause).getDeliveredResults());
+					}
+					else {
+						onlyRejections = false;
+					}
+				}
+			}
+			Throwable failure = failures.get(0);
+			if (onlyRejections) {
+				failure = new RejectedResultsException(rejected.size() + " of " + checkResults.size()
+						+ " check results were rejected by the NRDP server", failure, rejected, delivered);
+			}
+			else {
+				for (Throwable other : failures.subList(1, failures.size())) {
+					failure.addSuppressed(other);
+				}
+			}
+			aggregated.completeExceptionally(failure);
+		});
+		return aggregated;
+	}
+
+	/**
+	 * Asynchronously sends check results to Nagios. Failures are counted and reported to the error handler, which logs them by default (see
+	 * {@link #setErrorHandler(BiConsumer)}). If you need a custom handling of exceptions per call, call sendAsync and handle them using the
+	 * returned completable future.
+	 * <p>
+	 * Unless the results need to be split, no future nor job is allocated : jobs are taken from a pool and go back to it once run.
 	 *
 	 * @param checkResults is a list of results to send
 	 * @throws IOException if the send job queue is full
 	 */
 	public void send(Collection<NagiosCheckResult> checkResults) throws IOException {
-		sendAsync(checkResults).exceptionally((e) -> {
-			logger.error("Exception while sending nagios check result to NRDP server: ", e);
-			return checkResults;
-		});
+		Throttle throttle = this.throttle;
+		BatchSplitter splitter = throttle.limit(batchSplitter);
+		if (overflowPolicy != OverflowPolicy.REJECT_NEW) {
+			admitAll(splitter.split(checkResults), throttle);
+			return;
+		}
+		SerialLanes lanes = this.lanes;
+		if (splitter.fitsWithoutSizing(checkResults) && (lanes == null || lanes.isSingleLane(checkResults))) {
+			reserve(checkResults);
+			fireAndForget(checkResults, throttle);
+			return;
+		}
+		List<Collection<NagiosCheckResult>> batches = split(splitter, checkResults);
+		int maxQueueSize = this.maxQueueSize;
+		if (maxQueueSize > 0 && batches.size() > maxQueueSize) { // rare enough to afford the futures
+			for (NagiosSendTask task : dispatchChained(batches, false)) {
+				task.getCompletableFuture().whenComplete((sent, e) -> {
+					if (e != null) {
+						sendFailed(task.getResults(), e);
+					}
+				});
+			}
+			return;
+		}
+		reserve(batches.size(), batches);
+		for (int i = 0; i < batches.size(); i++) {
+			try {
+				fireAndForget(batches.get(i), throttle);
+			}
+			catch (IOException e) { // only happens when the dispatcher's executor is shared with other senders
+				queuedTasks.addAndGet(-(batches.size() - i - 1));
+				if (i == 0) {
+					throw e;
+				}
+				for (Collection<NagiosCheckResult> batch : batches.subList(i, batches.size())) {
+					sendFailed(batch, e);
+				}
+				break;
+			}
+		}
+	}
+
+	private void fireAndForget(Collection<NagiosCheckResult> batch, Throttle throttle) throws IOException {
+		PooledSendTask task = pooledTask(batch, throttle);
+		if (!offerReserved(task, batch)) {
+			queuedTasks.decrementAndGet();
+			task.release();
+			throw queueFull(batch.size());
+		}
+	}
+
+	/**
+	 * Fire and forget counterpart of {@link #admitAll(List, boolean)}
+	 */
+	private void admitAll(List<Collection<NagiosCheckResult>> batches, Throttle throttle) throws IOException {
+		List<Collection<NagiosCheckResult>> rejected = null;
+		for (Collection<NagiosCheckResult> batch : batches) {
+			PooledSendTask task = pooledTask(batch, throttle);
+			if (!admit(task, batch)) {
+				task.release();
+				if (rejected == null) {
+					rejected = new ArrayList<Collection<NagiosCheckResult>>();
+				}
+				rejected.add(batch);
+			}
+		}
+		if (rejected == null) {
+			return;
+		}
+		if (rejected.size() == batches.size()) {
+			throw queueFull(rejected);
+		}
+		for (Collection<NagiosCheckResult> batch : rejected) {
+			sendFailed(batch, queueFull(batch.size()));
+		}
+	}
+
+	private PooledSendTask pooledTask(Collection<NagiosCheckResult> batch, Throttle throttle) {
+		PooledSendTask task = taskPool.poll();
+		if (task == null) {
+			task = new PooledSendTask(meteredSender, queuedTasks, failureHandler, taskPool);
+		}
+		return task.prepare(batch, throttle);
 	}
 
 	/**
-	 * Shuts down the underlying executor. No new results should be sent through this sender after this method is invoked.
+	 * Count a failure and report it to the error handler
+	 */
+	void sendFailed(Collection<NagiosCheckResult> results, Throwable e) {
+		failedRequests.incrementAndGet();
+		failedResults.addAndGet(results.size());
+		try {
+			errorHandler.accept(results, e);
+		}
+		catch (RuntimeException handlerFailure) {
+			logger.error("Error handler failed while handling a failure to send nagios check results : ", handlerFailure);
+		}
+	}
+
+	/**
+	 * Shuts down the underlying dispatcher, unless it is shared with other senders. No new results should be sent through this sender after
+	 * this method is invoked.
 	 */
 	public void shutdown() {
-		executor.shutdown();
+		if (ownsDispatcher) {
+			dispatcher.shutdown();
+		}
 		sender.shutdown();
 	}
 
+	/**
+	 * Counts the requests sent by the worker threads
+	 */
+	static class MeteredSender implements NagiosCheckSender {
+
+		private final NagiosCheckSender sender;
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final AtomicLong deliveredRequests = new AtomicLong();
+		private final AtomicLong deliveredResults = new AtomicLong();
+		private final AtomicLong errors = new AtomicLong();
+
+		MeteredSender(NagiosCheckSender sender) {
+			this.sender = sender;
+		}
+
+		public void send(Collection<NagiosCheckResult> checkResults) throws NRDPException, IOException {
+			send(checkResults, false);
+		}
+
+		/**
+		 * Same as send, telling where the results were delivered
+		 */
+		Delivery deliver(Collection<NagiosCheckResult> checkResults) throws NRDPException, IOException {
+			return send(checkResults, true);
+		}
+
+		private Delivery send(Collection<NagiosCheckResult> checkResults, boolean withDelivery) throws NRDPException, IOException {
+			inFlight.incrementAndGet();
+			boolean delivered = false;
+			try {
+				Delivery delivery = null;
+				if (withDelivery) {
+					delivery = Delivery.send(sender, checkResults);
+				}
+				else {
+					sender.send(checkResults);
+				}
+				delivered = true;
+				return delivery;
+			}
+			finally {
+				inFlight.decrementAndGet();
+				if (delivered) {
+					deliveredRequests.incrementAndGet();
+					deliveredResults.addAndGet(checkResults.size());
+				}
+				else {
+					errors.incrementAndGet();
+				}
+			}
+		}
+
+		public void shutdown() {
+			sender.shutdown();
+		}
+	}
+
 }
@@ -0,0 +1,53 @@
+package ch.shamu.jsendnrdp.impl;
+
+/**
+ * Management interface of a {@link NonBlockingNagiosCheckSender}, registered by {@link NonBlockingSenderManagement}
+ */
+public interface NonBlockingSenderMXBean {
+
+	/**
+	 * @return the number of requests queued, waiting for a worker thread
+	 */
+	int getQueueDepth();
+
+	/**
+	 * @return the number of requests being sent to the NRDP server
+	 */
+	int getInFlightRequests();
+
+	long getDeliveredRequests();
+
+	long getDeliveredResults();
+
+	long getFailedRequests();
+
+	/**
+	 * @return the number of requests delivered per second, measured since the previous sample (taken at most once per second)
+	 */
+	double getRequestsPerSecond();
+
+	/**
+	 * @return the number of check results delivered per second, measured since the previous sample (taken at most once per second)
+	 */
+	double getResultsPerSecond();
+
+	int getPoolSize();
+
+	void setPoolSize(int poolSize);
+
+	int getMaxQueueSize();
+
+	void setMaxQueueSize(int maxQueueSize);
+
+	/**
+	 * @return the maximum number of requests per second, 0 means unlimited
+	 */
+	double getMaxRequestsPerSecond();
+
+	void setMaxRequestsPerSecond(double maxRequestsPerSecond);
+
+	/**
+	 * @return the NRDP server timeout in milliseconds, -1 if unknown (the sender is decorated)
+	 */
+	int getTimeout();
+}
@@ -0,0 +1,174 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.shamu.jsendnrdp.NRDPServerConnectionSettings;
+
+/**
+ * <p>
+ * Exposes a {@link NonBlockingNagiosCheckSender} through JMX, so that it can be watched and tuned at runtime (jconsole, jmx exporters, ...)
+ * without restarting the application : queue depth, in-flight requests and throughput, as well as the number of worker threads, the queue
+ * bound and the request rate. The NRDP server timeout is read only (-1 when the NRDP server of the sender is unknown), see
+ * {@link NonBlockingServerSenderManagement} to change it too.
+ *
+ * <pre>
+ * new NonBlockingSenderManagement(sender).register(&quot;monitoring&quot;);
+ * </pre>
+ */
+public class NonBlockingSenderManagement implements NonBlockingSenderMXBean {
+
+	private final static Logger logger = LoggerFactory.getLogger(NonBlockingSenderManagement.class);
+
+	private final static String DOMAIN = "ch.shamu.jsendnrdp";
+	private final static long MIN_SAMPLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final NonBlockingNagiosCheckSender sender;
+	private final NRDPServerConnectionSettings server;
+	private ObjectName name;
+
+	// throughput samples, guarded by this
+	private long sampleNanos = System.nanoTime();
+	private long sampleRequests;
+	private long sampleResults;
+	private double requestsPerSecond;
+	private double resultsPerSecond;
+
+	/**
+	 * @param sender is the managed sender
+	 */
+	public NonBlockingSenderManagement(NonBlockingNagiosCheckSender sender) {
+		this(sender, sender.getServerSettings());
+	}
+
+	NonBlockingSenderManagement(NonBlockingNagiosCheckSender sender, NRDPServerConnectionSettings server) {
+		this.sender = sender;
+		this.server = server;
+	}
+
+	/**
+	 * Register this MBean in the platform MBean server
+	 *
+	 * @param name distinguishes this sender from the other ones of the application
+	 * @return the name of the registered MBean
+	 */
+	public synchronized ObjectName register(String name) {
+		try {
+			ObjectName objectName = new ObjectName(DOMAIN + ":type=NonBlockingNagiosCheckSender,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(toMBean(), objectName);
+			this.name = objectName;
+			logger.info("NRDP sender registered in JMX as {}", objectName);
+			return objectName;
+		}
+		catch (JMException e) {
+			throw new IllegalStateException("Unable to register the NRDP sender " + name + " in JMX", e);
+		}
+	}
+
+	/**
+	 * @return this object, exposed through its management interface
+	 */
+	StandardMBean toMBean() throws JMException {
+		return new StandardMBean(this, NonBlockingSenderMXBean.class, true);
+	}
+
+	/**
+	 * Unregister this MBean, typically when the sender is shut down
+	 */
+	public synchronized void unregister() {
+		if (name == null) {
+			return;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.unregisterMBean(name);
+		}
+		catch (JMException e) {
+			logger.warn("Unable to unregister the NRDP sender " + name + " from JMX", e);
+		}
+		name = null;
+	}
+
+	public int getQueueDepth() {
+		return sender.getQueuedRequests();
+	}
+
+	public int getInFlightRequests() {
+		return sender.getInFlightRequests();
+	}
+
+	public long getDeliveredRequests() {
+		return sender.getDeliveredRequests();
+	}
+
+	public long getDeliveredResults() {
+		return sender.getDeliveredResults();
+	}
+
+	public long getFailedRequests() {
+		return sender.getSendErrors();
+	}
+
+	public synchronized double getRequestsPerSecond() {
+		sample();
+		return requestsPerSecond;
+	}
+
+	public synchronized double getResultsPerSecond() {
+		sample();
+		return resultsPerSecond;
+	}
+
+	private void sample() {
+		long now = System.nanoTime();
+		long elapsed = now - sampleNanos;
+		if (elapsed < MIN_SAMPLE_NANOS) {
+			return; // keep the previous rates rather than measuring a too short interval
+		}
+		long requests = sender.getDeliveredRequests();
+		long results = sender.getDeliveredResults();
+		double seconds = elapsed / (double) TimeUnit.SECONDS.toNanos(1);
+		requestsPerSecond = (requests - sampleRequests) / seconds;
+		resultsPerSecond = (results - sampleResults) / seconds;
+		sampleNanos = now;
+		sampleRequests = requests;
+		sampleResults = results;
+	}
+
+	public int getPoolSize() {
+		return sender.getPoolSize();
+	}
+
+	public void setPoolSize(int poolSize) {
+		sender.setPoolSize(poolSize);
+	}
+
+	public int getMaxQueueSize() {
+		return sender.getMaxQueueSize();
+	}
+
+	public void setMaxQueueSize(int maxQueueSize) {
+		sender.setMaxQueueSize(maxQueueSize);
+	}
+
+	public double getMaxRequestsPerSecond() {
+		return sender.getRequestRateLimit();
+	}
+
+	public void setMaxRequestsPerSecond(double maxRequestsPerSecond) {
+		sender.setRequestRateLimit(maxRequestsPerSecond, sender.getRequestBurst());
+		logger.info("NRDP sender request rate : {}/s", maxRequestsPerSecond);
+	}
+
+	public int getTimeout() {
+		return server == null ? -1 : server.getTimeout();
+	}
+}
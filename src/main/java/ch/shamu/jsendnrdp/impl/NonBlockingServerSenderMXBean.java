@@ -0,0 +1,10 @@
+package ch.shamu.jsendnrdp.impl;
+
+/**
+ * Management interface of a {@link NonBlockingNagiosCheckSender} whose NRDP server connection settings are known, so that its timeout can be
+ * changed too
+ */
+public interface NonBlockingServerSenderMXBean extends NonBlockingSenderMXBean {
+
+	void setTimeout(int timeout);
+}
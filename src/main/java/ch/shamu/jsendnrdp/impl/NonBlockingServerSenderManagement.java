@@ -0,0 +1,54 @@
+package ch.shamu.jsendnrdp.impl;
+
+import javax.management.JMException;
+import javax.management.StandardMBean;
+
+import ch.shamu.jsendnrdp.NRDPServerConnectionSettings;
+
+/**
+ * <p>
+ * Same as {@link NonBlockingSenderManagement}, for a sender whose NRDP server connection settings are known, so that the timeout can be
+ * changed too.
+ * <p>
+ * The timeout is changed in the {@link NRDPServerConnectionSettings} object itself, which is mutable : every sender built with the same
+ * settings object is retuned, not only the managed one.
+ *
+ * <pre>
+ * new NonBlockingServerSenderManagement(sender).register(&quot;monitoring&quot;);
+ * </pre>
+ */
+public class NonBlockingServerSenderManagement extends NonBlockingSenderManagement implements NonBlockingServerSenderMXBean {
+
+	private final NRDPServerConnectionSettings server;
+
+	/**
+	 * @param sender is the managed sender, it must send directly to a NRDP server
+	 */
+	public NonBlockingServerSenderManagement(NonBlockingNagiosCheckSender sender) {
+		this(sender, sender.getServerSettings());
+	}
+
+	/**
+	 * @param sender is the managed sender
+	 * @param server is the connection settings used by the sender, whose timeout is managed (for example when the sender is decorated)
+	 */
+	public NonBlockingServerSenderManagement(NonBlockingNagiosCheckSender sender, NRDPServerConnectionSettings server) {
+		super(sender, server);
+		if (server == null) {
+			throw new IllegalArgumentException("The NRDP server of a decorated sender is unknown, give its connection settings");
+		}
+		this.server = server;
+	}
+
+	@Override
+	StandardMBean toMBean() throws JMException {
+		return new StandardMBean(this, NonBlockingServerSenderMXBean.class, true);
+	}
+
+	public void setTimeout(int timeout) {
+		if (timeout < 0) {
+			throw new IllegalArgumentException("The timeout can't be negative : " + timeout);
+		}
+		server.setTimeout(timeout);
+	}
+}
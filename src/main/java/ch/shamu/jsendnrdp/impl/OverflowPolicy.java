@@ -0,0 +1,33 @@
+package ch.shamu.jsendnrdp.impl;
+
+import ch.shamu.jsendnrdp.domain.State;
+
+/**
+ * What a {@link NonBlockingNagiosCheckSender} does with new check results when its queue is full. Unless the new results are rejected, a
+ * queued request is shed to make room for them : it is never sent, and its future (or the error handler) fails with a
+ * {@link ch.shamu.jsendnrdp.ShedResultsException}.
+ */
+public enum OverflowPolicy {
+
+	/**
+	 * The new results are rejected (IOException), queued requests are kept
+	 */
+	REJECT_NEW,
+
+	/**
+	 * The oldest queued request is shed
+	 */
+	DROP_OLDEST,
+
+	/**
+	 * The oldest of the least severe queued requests is shed (the severity of a request is the one of its worst {@link State}), unless the
+	 * new results are even less severe, in which case they are rejected
+	 */
+	DROP_LOWEST_SEVERITY,
+
+	/**
+	 * The oldest queued request whose results all have a newer result queued for the same (host, service) is shed. If there's none, the new
+	 * results are rejected
+	 */
+	DROP_SUPERSEDED
+}
@@ -0,0 +1,101 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import ch.shamu.jsendnrdp.NagiosCheckSender;
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+
+/**
+ * <p>
+ * Fire and forget counterpart of {@link NagiosSendTask} : nobody waits for the outcome, so there is no future to complete. Failures are
+ * handed over to a callback shared by all the tasks of a sender.
+ * <p>
+ * Instances are recycled through a pool once they have run, so that sending results doesn't allocate a task per request. The results and
+ * the throttle are set by {@link #prepare(Collection, Throttle)}, before the task is published to the workers.
+ */
+class PooledSendTask implements Runnable {
+
+	private final static Logger logger = LoggerFactory.getLogger(PooledSendTask.class);
+
+	private final NagiosCheckSender sender;
+	private final AtomicInteger queuedTasks;
+	private final BiConsumer<Collection<NagiosCheckResult>, Throwable> failureHandler;
+	private final RingBuffer<PooledSendTask> pool;
+
+	// set before the task is dispatched, cleared when it goes back to the pool
+	private Collection<NagiosCheckResult> results;
+	private Throttle throttle;
+	private boolean permitsReserved; // the task was deferred until its permits are due
+
+	/**
+	 * @param queuedTasks    is decremented when the task starts running
+	 * @param failureHandler is called on the worker thread when a request fails
+	 * @param pool           is where the task goes back once it has run
+	 */
+	PooledSendTask(NagiosCheckSender sender, AtomicInteger queuedTasks, BiConsumer<Collection<NagiosCheckResult>, Throwable> failureHandler,
+			RingBuffer<PooledSendTask> pool) {
+		this.sender = sender;
+		this.queuedTasks = queuedTasks;
+		this.failureHandler = failureHandler;
+		this.pool = pool;
+	}
+
+	PooledSendTask prepare(Collection<NagiosCheckResult> results, Throttle throttle) {
+		this.results = results;
+		this.throttle = throttle;
+		this.permitsReserved = false;
+		return this;
+	}
+
+	public void run() {
+		if (!permitsReserved) {
+			permitsReserved = true;
+			long waitTime = throttle.reserve(results); // Eventually wait because of throttling
+			if (waitTime > 0 && throttle.defer(this, waitTime)) {
+				return; // still counted as queued, runs again once the permits are due
+			}
+			queuedTasks.decrementAndGet();
+			if (waitTime > 0) {
+				logger.debug("task throttling wait : {}ns", waitTime);
+				Uninterruptibles.sleepUninterruptibly(waitTime, TimeUnit.NANOSECONDS);
+			}
+		}
+		else {
+			queuedTasks.decrementAndGet();
+		}
+		try {
+			sender.send(results);
+		}
+		catch (Throwable e) {
+			failureHandler.accept(results, e);
+		}
+		finally {
+			release(); // must be the last access to this task, another thread may prepare it right away
+		}
+	}
+
+	/**
+	 * Report the failure of a task which won't run, and give it back to the pool
+	 */
+	void fail(Throwable e) {
+		failureHandler.accept(results, e);
+		release();
+	}
+
+	/**
+	 * Give the task back to the pool, it is dropped if the pool is full
+	 */
+	void release() {
+		results = null;
+		throttle = null;
+		pool.offer(this);
+	}
+}
@@ -0,0 +1,114 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Bounded lock-free multi-producer multi-consumer queue (Dmitry Vyukov's algorithm).
+ * <p>
+ * All the slots are allocated up front. Each slot carries a sequence number telling whether it is ready to be written (sequence == position)
+ * or read (sequence == position + 1). Producers and consumers only contend on a single CAS of the tail / head counter.
+ */
+class RingBuffer<E> {
+
+	private final int capacity;
+	private final Object[] slots;
+	private final AtomicLongArray sequences;
+	private final PaddedAtomicLong tail = new PaddedAtomicLong(); // next position to write
+	private final PaddedAtomicLong head = new PaddedAtomicLong(); // next position to read
+
+	RingBuffer(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Ring buffer capacity must be positive : " + capacity);
+		}
+		this.capacity = capacity;
+		this.slots = new Object[capacity];
+		this.sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * @return false if the buffer is full
+	 */
+	boolean offer(E element) {
+		long position = tail.get();
+		while (true) {
+			int index = index(position);
+			long diff = sequences.get(index) - position;
+			if (diff == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					slots[index] = element;
+					sequences.lazySet(index, position + 1); // publish to consumers
+					return true;
+				}
+				position = tail.get();
+			}
+			else if (diff < 0) {
+				return false; // the slot still holds the element written one lap ago
+			}
+			else {
+				position = tail.get(); // another producer got this slot
+			}
+		}
+	}
+
+	/**
+	 * @return the oldest element or null if the buffer is empty
+	 */
+	@SuppressWarnings("unchecked")
+	E poll() {
+		long position = head.get();
+		while (true) {
+			int index = index(position);
+			long diff = sequences.get(index) - (position + 1);
+			if (diff == 0) {
+				if (head.compareAndSet(position, position + 1)) {
+					E element = (E) slots[index];
+					slots[index] = null;
+					sequences.lazySet(index, position + capacity); // hand the slot back to producers for the next lap
+					return element;
+				}
+				position = head.get();
+			}
+			else if (diff < 0) {
+				return null;
+			}
+			else {
+				position = head.get(); // another consumer got this slot
+			}
+		}
+	}
+
+	/**
+	 * @return the approximate number of elements in the buffer
+	 */
+	int size() {
+		long h = head.get();
+		long size = tail.get() - h;
+		return (int) Math.max(0, Math.min(capacity, size));
+	}
+
+	boolean isEmpty() {
+		return tail.get() == head.get();
+	}
+
+	int capacity() {
+		return capacity;
+	}
+
+	private int index(long position) {
+		return (int) (position % capacity);
+	}
+
+	/**
+	 * Keeps the head and tail counters on separate cache lines, so that producers and consumers do not invalidate each other's line.
+	 */
+	@SuppressWarnings("unused")
+	private static class PaddedAtomicLong extends AtomicLong {
+		private static final long serialVersionUID = 1L;
+		long p1, p2, p3, p4, p5, p6, p7;
+	}
+}
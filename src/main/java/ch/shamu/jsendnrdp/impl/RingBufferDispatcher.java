@@ -0,0 +1,165 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * {@link Dispatcher} built on a preallocated lock-free {@link RingBuffer} drained by a fixed set of worker threads.
+ * <p>
+ * Offering a job never takes a lock : producers only contend on a CAS. Idle workers spin for a little while before parking, and producers
+ * only pay for an unpark when a worker is actually parked.
+ */
+public class RingBufferDispatcher implements Dispatcher {
+
+	private final static Logger logger = LoggerFactory.getLogger(RingBufferDispatcher.class);
+
+	private final static int SPINS_BEFORE_PARKING = 64;
+	private final static long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final RingBuffer<Runnable> queue;
+	private final ThreadFactory threadFactory;
+	private final List<Worker> workers = new CopyOnWriteArrayList<Worker>();
+	private final AtomicInteger idleWorkers = new AtomicInteger();
+	private volatile boolean running = true;
+
+	/**
+	 * @param nbThreads  is the number of worker threads
+	 * @param capacity   is the maximum number of queued jobs
+	 * @param threadName is the prefix of the worker thread names
+	 */
+	public RingBufferDispatcher(int nbThreads, int capacity, String threadName) {
+		this(nbThreads, capacity, new NamedThreadFactory(threadName));
+	}
+
+	/**
+	 * @param nbThreads     is the number of worker threads
+	 * @param capacity      is the maximum number of queued jobs
+	 * @param threadFactory is used to create the worker threads
+	 */
+	public RingBufferDispatcher(int nbThreads, int capacity, ThreadFactory threadFactory) {
+		this.queue = new RingBuffer<Runnable>(capacity);
+		this.threadFactory = threadFactory;
+		setPoolSize(nbThreads);
+	}
+
+	public boolean offer(Runnable job) {
+		if (!running) {
+			throw new RejectedExecutionException("Dispatcher has been shut down");
+		}
+		if (!queue.offer(job)) {
+			return false;
+		}
+		if (idleWorkers.get() > 0) {
+			wakeUpOneWorker();
+		}
+		return true;
+	}
+
+	public int size() {
+		return queue.size();
+	}
+
+	public int getCapacity() {
+		return queue.capacity();
+	}
+
+	public int getPoolSize() {
+		return workers.size();
+	}
+
+	public synchronized void setPoolSize(int nbThreads) {
+		if (nbThreads <= 0) {
+			throw new IllegalArgumentException("The number of worker threads must be positive : " + nbThreads);
+		}
+		while (workers.size() < nbThreads) {
+			Worker worker = new Worker(threadFactory);
+			workers.add(worker);
+			worker.thread.start();
+		}
+		while (workers.size() > nbThreads) {
+			Worker worker = workers.remove(workers.size() - 1);
+			worker.retired = true;
+			LockSupport.unpark(worker.thread);
+		}
+	}
+
+	public void shutdown() {
+		running = false;
+		for (Worker worker : workers) {
+			LockSupport.unpark(worker.thread);
+		}
+	}
+
+	private void wakeUpOneWorker() {
+		for (Worker worker : workers) {
+			if (worker.parked.compareAndSet(true, false)) {
+				idleWorkers.decrementAndGet();
+				LockSupport.unpark(worker.thread);
+				return;
+			}
+		}
+	}
+
+	private class Worker implements Runnable {
+
+		private final Thread thread;
+		private final AtomicBoolean parked = new AtomicBoolean();
+		private volatile boolean retired;
+
+		Worker(ThreadFactory threadFactory) {
+			this.thread = threadFactory.newThread(this);
+		}
+
+		public void run() {
+			int spins = 0;
+			while (!retired) {
+				Runnable job = queue.poll();
+				if (job != null) {
+					spins = 0;
+					execute(job);
+				}
+				else if (!running && queue.isEmpty()) {
+					return; // queued jobs are drained before exiting
+				}
+				else if (spins++ < SPINS_BEFORE_PARKING) {
+					Thread.yield();
+				}
+				else {
+					spins = 0;
+					park();
+				}
+			}
+		}
+
+		private void park() {
+			parked.set(true);
+			idleWorkers.incrementAndGet();
+			// a producer offering a job after this check is guaranteed to see this worker as idle and unpark it
+			if (queue.isEmpty() && running) {
+				LockSupport.parkNanos(this, MAX_PARK_NANOS);
+			}
+			if (parked.compareAndSet(true, false)) {
+				idleWorkers.decrementAndGet();
+			}
+		}
+
+		private void execute(Runnable job) {
+			try {
+				job.run();
+			}
+			catch (Throwable e) {
+				logger.error("Uncaught exception in dispatched job : ", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.shamu.jsendnrdp.NRDPException;
+import ch.shamu.jsendnrdp.NagiosCheckSender;
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+import ch.shamu.jsendnrdp.domain.State;
+
+/**
+ * <p>
+ * Front end of a sender which rolls up high cardinality results (one per container, per instance, ...) into one summary result per group.
+ * <p>
+ * Results are grouped by a configurable function over a tumbling window. At the end of each window, one result is sent per group : its
+ * state is the worst state of the group, and its output gives the count of results per state, followed by a bounded list of offenders
+ * (most severe first) in the long output. Within a window, only the last result of each (host, service) is taken into account. Results
+ * which don't belong to any group are forwarded right away.
+ */
+public class RollupNagiosCheckSender implements NagiosCheckSender {
+
+	private final static Logger logger = LoggerFactory.getLogger(RollupNagiosCheckSender.class);
+
+	private final static Comparator<NagiosCheckResult> MOST_SEVERE_FIRST = (a, b) -> b.getState().getSeverity() - a.getState().getSeverity();
+
+	private final NagiosCheckSender sender;
+	private final Function<NagiosCheckResult, Group> grouping;
+	private final int maxOffenders;
+	private final ScheduledExecutorService scheduler;
+	private final ReadWriteLock windowLock = new ReentrantReadWriteLock(); // adding results is shared, closing a window is exclusive
+	private ConcurrentMap<Group, Window> windows = new ConcurrentHashMap<Group, Window>();
+
+	/**
+	 * @param sender       is the sender the summaries and ungrouped results are forwarded to
+	 * @param grouping     gives the group (summary service) of a result, or null if the result must be forwarded as is
+	 * @param window       is the duration of the aggregation window
+	 * @param maxOffenders is the maximum number of offending results listed in the output of a summary
+	 */
+	public RollupNagiosCheckSender(NagiosCheckSender sender, Function<NagiosCheckResult, Group> grouping, long window, TimeUnit unit,
+			int maxOffenders) {
+		this.sender = sender;
+		this.grouping = grouping;
+		this.maxOffenders = maxOffenders;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "nrdp-rollup");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleAtFixedRate(this::flushQuietly, window, window, unit);
+	}
+
+	public void send(Collection<NagiosCheckResult> checkResults) throws NRDPException, IOException {
+		List<NagiosCheckResult> ungrouped = null;
+		windowLock.readLock().lock();
+		try {
+			for (NagiosCheckResult r : checkResults) {
+				Group group = grouping.apply(r);
+				if (group == null) {
+					if (ungrouped == null) {
+						ungrouped = new ArrayList<NagiosCheckResult>();
+					}
+					ungrouped.add(r);
+				}
+				else {
+					windows.computeIfAbsent(group, g -> new Window()).add(r);
+				}
+			}
+		}
+		finally {
+			windowLock.readLock().unlock();
+		}
+		if (ungrouped != null) {
+			sender.send(ungrouped);
+		}
+	}
+
+	/**
+	 * Close the current window and send its summaries now
+	 */
+	public void flush() throws NRDPException, IOException {
+		Map<Group, Window> closed;
+		windowLock.writeLock().lock();
+		try {
+			closed = windows;
+			windows = new ConcurrentHashMap<Group, Window>();
+		}
+		finally {
+			windowLock.writeLock().unlock();
+		}
+		if (closed.isEmpty()) {
+			return;
+		}
+		List<NagiosCheckResult> summaries = new ArrayList<NagiosCheckResult>(closed.size());
+		for (Map.Entry<Group, Window> e : closed.entrySet()) {
+			summaries.add(e.getValue().summarize(e.getKey()));
+		}
+		sender.send(summaries);
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		}
+		catch (Exception e) {
+			logger.error("Exception while sending rolled up nagios check results : ", e);
+		}
+	}
+
+	/**
+	 * Send the summaries of the current window, then shut down the underlying sender
+	 */
+	public void shutdown() {
+		scheduler.shutdown();
+		flushQuietly();
+		sender.shutdown();
+	}
+
+	/**
+	 * The Nagios service a group of results is rolled up into
+	 */
+	public static final class Group {
+
+		private final String host;
+		private final String service;
+
+		public Group(String host, String service) {
+			this.host = host;
+			this.service = service;
+		}
+
+		public String getHost() {
+			return host;
+		}
+
+		public String getService() {
+			return service;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * host.hashCode() + service.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Group)) {
+				return false;
+			}
+			Group other = (Group) o;
+			return host.equals(other.host) && service.equals(other.service);
+		}
+	}
+
+	/**
+	 * The results of a group received during the current window
+	 */
+	private class Window {
+
+		private final Map<ServiceKey, NagiosCheckResult> latest = new HashMap<ServiceKey, NagiosCheckResult>();
+
+		synchronized void add(NagiosCheckResult r) {
+			latest.put(ServiceKey.of(r), r);
+		}
+
+		synchronized NagiosCheckResult summarize(Group group) {
+			Map<State, Integer> counts = new EnumMap<State, Integer>(State.class);
+			State worst = State.OK;
+			List<NagiosCheckResult> offenders = new ArrayList<NagiosCheckResult>();
+			for (NagiosCheckResult r : latest.values()) {
+				counts.merge(r.getState(), 1, Integer::sum);
+				worst = State.worst(worst, r.getState());
+				if (r.getState() != State.OK) {
+					offenders.add(r);
+				}
+			}
+			offenders.sort(MOST_SEVERE_FIRST);
+
+			StringBuilder output = new StringBuilder();
+			output.append(worst).append(" - ").append(latest.size()).append(" results :");
+			for (State state : new State[] { State.CRITICAL, State.UNKNOWN, State.WARNING, State.OK }) {
+				output.append(' ').append(counts.getOrDefault(state, 0)).append(' ').append(state);
+				if (state != State.OK) {
+					output.append(',');
+				}
+			}
+			for (NagiosCheckResult r : offenders.subList(0, Math.min(maxOffenders, offenders.size()))) {
+				output.append('\n').append(r.getState()).append(' ').append(r.getHost()).append('/').append(r.getService()).append(" : ")
+						.append(firstLine(r.getMessage()));
+			}
+			if (offenders.size() > maxOffenders) {
+				output.append("\n... and ").append(offenders.size() - maxOffenders).append(" more");
+			}
+			return new NagiosCheckResult(group.getHost(), group.getService(), worst, output.toString());
+		}
+
+		/**
+		 * @return the first line of the message, without its performance data : the summary's output would otherwise carry the perfdata of
+		 *         its offenders, where Nagios would parse it as the summary's own
+		 */
+		private String firstLine(String message) {
+			if (message == null) {
+				return "";
+			}
+			int end = 0;
+			while (end < message.length() && message.charAt(end) != '\n' && message.charAt(end) != '|') {
+				end++;
+			}
+			return message.substring(0, end).trim();
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+
+/**
+ * <p>
+ * Keeps the results of each service in order while sending in parallel : results are hashed to lanes by (host, service), the jobs of a
+ * lane run one after the other, in the order they were queued, and different lanes run concurrently on the workers of the dispatcher.
+ * <p>
+ * Each job must carry the results of a single lane (see {@link #split(BatchSplitter, Collection)}). A lane has at most one drain job in
+ * the dispatcher, which runs one job of the lane and queues itself again if more are waiting, so that busy lanes don't starve the others.
+ * As every drain job stands for at least one queued job, the dispatcher holds no more drain jobs than the sender's queue bound.
+ */
+class SerialLanes {
+
+	private final Lane[] lanes;
+	private final Dispatcher dispatcher;
+	private final BiConsumer<Runnable, IOException> refusedHandler;
+
+	/**
+	 * @param count          is the number of lanes
+	 * @param refusedHandler fails the jobs of a lane whose drain job was refused by the dispatcher (only happens when it is shared with other
+	 *                       senders)
+	 */
+	SerialLanes(int count, Dispatcher dispatcher, BiConsumer<Runnable, IOException> refusedHandler) {
+		if (count <= 0) {
+			throw new IllegalArgumentException("The number of lanes must be positive : " + count);
+		}
+		this.lanes = new Lane[count];
+		for (int i = 0; i < count; i++) {
+			lanes[i] = new Lane();
+		}
+		this.dispatcher = dispatcher;
+		this.refusedHandler = refusedHandler;
+	}
+
+	int size() {
+		return lanes.length;
+	}
+
+	int laneOf(NagiosCheckResult r) {
+		int hash = ServiceKey.hash(r.getHost(), r.getService());
+		hash ^= hash >>> 16;
+		return (hash & Integer.MAX_VALUE) % lanes.length;
+	}
+
+	/**
+	 * @return true if all the results go to the same lane (without allocating anything)
+	 */
+	boolean isSingleLane(Collection<NagiosCheckResult> results) {
+		int lane = -1;
+		for (NagiosCheckResult r : results) {
+			int other = laneOf(r);
+			if (lane >= 0 && other != lane) {
+				return false;
+			}
+			lane = other;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the requests, each one holding results of a single lane, in their original order
+	 */
+	List<Collection<NagiosCheckResult>> split(BatchSplitter splitter, Collection<NagiosCheckResult> results) {
+		if (isSingleLane(results)) {
+			return splitter.split(results);
+		}
+		List<List<NagiosCheckResult>> byLane = new ArrayList<List<NagiosCheckResult>>(lanes.length);
+		for (int i = 0; i < lanes.length; i++) {
+			byLane.add(null);
+		}
+		for (NagiosCheckResult r : results) {
+			int lane = laneOf(r);
+			List<NagiosCheckResult> laneResults = byLane.get(lane);
+			if (laneResults == null) {
+				laneResults = new ArrayList<NagiosCheckResult>();
+				byLane.set(lane, laneResults);
+			}
+			laneResults.add(r);
+		}
+		List<Collection<NagiosCheckResult>> batches = new ArrayList<Collection<NagiosCheckResult>>();
+		for (List<NagiosCheckResult> laneResults : byLane) {
+			if (laneResults != null) {
+				batches.addAll(splitter.split(laneResults));
+			}
+		}
+		return batches;
+	}
+
+	/**
+	 * Queue the job in the lane of its results, it runs once the jobs queued before it in this lane have run
+	 */
+	void execute(Collection<NagiosCheckResult> batch, Runnable job) {
+		int lane = batch.isEmpty() ? 0 : laneOf(batch.iterator().next());
+		lanes[lane].execute(job);
+	}
+
+	private class Lane implements Runnable {
+
+		private final ConcurrentLinkedQueue<Runnable> jobs = new ConcurrentLinkedQueue<Runnable>();
+		private final AtomicInteger pending = new AtomicInteger(); // jobs queued or running
+
+		void execute(Runnable job) {
+			jobs.offer(job);
+			if (pending.getAndIncrement() == 0) {
+				schedule();
+			}
+		}
+
+		/**
+		 * Only called by the thread owning the lane : the one which found it idle, or the one running its drain job
+		 */
+		private void schedule() {
+			if (dispatcher.offer(this)) {
+				return;
+			}
+			IOException refused = new IOException("Nagios check result could not be submitted : the dispatcher is full");
+			do {
+				refusedHandler.accept(jobs.poll(), refused);
+			}
+			while (pending.decrementAndGet() > 0);
+		}
+
+		public void run() {
+			try {
+				jobs.poll().run();
+			}
+			finally {
+				if (pending.decrementAndGet() > 0) {
+					schedule();
+				}
+			}
+		}
+	}
+}
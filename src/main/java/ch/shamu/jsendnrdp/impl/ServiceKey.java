@@ -0,0 +1,56 @@
+package ch.shamu.jsendnrdp.impl;
+
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+
+/**
+ * Identifies a Nagios service : (host, service)
+ */
+final class ServiceKey {
+
+	private final String host;
+	private final String service;
+	private final int hash;
+
+	ServiceKey(String host, String service) {
+		this.host = host;
+		this.service = service;
+		this.hash = hash(host, service);
+	}
+
+	static ServiceKey of(NagiosCheckResult r) {
+		return new ServiceKey(r.getHost(), r.getService());
+	}
+
+	/**
+	 * @return the hash code of the key of the given service, without allocating the key
+	 */
+	static int hash(String host, String service) {
+		return 31 * (host == null ? 0 : host.hashCode()) + (service == null ? 0 : service.hashCode());
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof ServiceKey)) {
+			return false;
+		}
+		ServiceKey other = (ServiceKey) o;
+		return hash == other.hash && equals(host, other.host) && equals(service, other.service);
+	}
+
+	private static boolean equals(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	@Override
+	public String toString() {
+		return host + "/" + service;
+	}
+}
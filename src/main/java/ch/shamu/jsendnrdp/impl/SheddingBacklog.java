@@ -0,0 +1,248 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+import ch.shamu.jsendnrdp.domain.State;
+
+/**
+ * <p>
+ * Queued send jobs of a {@link NonBlockingNagiosCheckSender} using a shedding {@link OverflowPolicy}. Jobs wait here instead of in the
+ * dispatcher, which only runs interchangeable drain jobs (one per queued job), so that any queued job can be shed before it runs.
+ * <p>
+ * Jobs are polled in FIFO order. They are indexed by severity, and by (host, service) to find the jobs superseded by newer results. When
+ * the newest job of a service is removed before being sent, the previous one is live again. The backlog is not bounded by itself : the
+ * sender's reservation counter is. Removed entries are unlinked lazily, when they reach an end of their deque.
+ */
+class SheddingBacklog {
+
+	private final static int SEVERITIES = State.values().length;
+
+	/**
+	 * A queued job and what's needed to decide whether to shed it
+	 */
+	static final class Entry {
+
+		final Runnable task;
+		final Collection<NagiosCheckResult> results;
+		final int severity;
+		private long sequence;
+		private int liveResults; // results without a newer result queued for the same service
+		private boolean removed;
+
+		Entry(Runnable task, Collection<NagiosCheckResult> results) {
+			this.task = task;
+			this.results = results;
+			int worst = 0;
+			for (NagiosCheckResult r : results) {
+				worst = Math.max(worst, r.getState().getSeverity());
+			}
+			this.severity = worst;
+		}
+	}
+
+	private final List<ArrayDeque<Entry>> bySeverity = new ArrayList<ArrayDeque<Entry>>(SEVERITIES);
+	private final ArrayDeque<Entry> superseded = new ArrayDeque<Entry>();
+	private final Map<ServiceKey, ArrayDeque<Entry>> byService = new HashMap<ServiceKey, ArrayDeque<Entry>>(); // the last one is the latest
+	private long nextSequence;
+	private int size;
+
+	SheddingBacklog() {
+		for (int i = 0; i < SEVERITIES; i++) {
+			bySeverity.add(new ArrayDeque<Entry>());
+		}
+	}
+
+	synchronized void add(Entry entry) {
+		entry.sequence = nextSequence++;
+		bySeverity.get(entry.severity).addLast(entry);
+		size++;
+		for (NagiosCheckResult r : entry.results) {
+			ArrayDeque<Entry> queued = byService.computeIfAbsent(ServiceKey.of(r), key -> new ArrayDeque<Entry>(2));
+			Entry previous = queued.peekLast();
+			if (previous == entry) { // the same service twice in one entry
+				continue;
+			}
+			queued.addLast(entry);
+			entry.liveResults++;
+			if (previous != null && --previous.liveResults == 0) {
+				superseded.addLast(previous);
+			}
+		}
+	}
+
+	/**
+	 * @return the oldest queued entry, null if the backlog is empty
+	 */
+	synchronized Entry poll() {
+		Entry oldest = oldest();
+		if (oldest != null) {
+			remove(oldest);
+			headSuperseded(); // unlink the superseded entries sent in the meantime, whatever the policy
+		}
+		return oldest;
+	}
+
+	/**
+	 * Remove the given entry, unless it has already been polled or shed
+	 * @return true if the entry was removed
+	 */
+	synchronized boolean removeIfQueued(Entry entry) {
+		if (entry.removed) {
+			return false;
+		}
+		remove(entry);
+		return true;
+	}
+
+	/**
+	 * Make room for the incoming entry according to the policy
+	 * @return the shed entry, the incoming entry has taken its place. Null if nothing can be shed for the incoming entry, which is not queued
+	 */
+	synchronized Entry replace(OverflowPolicy policy, Entry incoming) {
+		Entry victim;
+		switch (policy) {
+		case DROP_OLDEST:
+			victim = oldest();
+			break;
+		case DROP_LOWEST_SEVERITY:
+			victim = leastSevere();
+			if (victim != null && victim.severity > incoming.severity) {
+				victim = null;
+			}
+			break;
+		case DROP_SUPERSEDED:
+			victim = supersededBy(incoming);
+			break;
+		default:
+			victim = null;
+		}
+		if (victim != null) {
+			remove(victim);
+			add(incoming);
+		}
+		return victim;
+	}
+
+	synchronized int size() {
+		return size;
+	}
+
+	private Entry oldest() {
+		Entry oldest = null;
+		for (ArrayDeque<Entry> entries : bySeverity) {
+			Entry head = head(entries);
+			if (head != null && (oldest == null || head.sequence < oldest.sequence)) {
+				oldest = head;
+			}
+		}
+		return oldest;
+	}
+
+	private Entry leastSevere() {
+		for (ArrayDeque<Entry> entries : bySeverity) {
+			Entry head = head(entries);
+			if (head != null) {
+				return head;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the oldest entry already superseded, or else an entry the incoming one would supersede
+	 */
+	private Entry supersededBy(Entry incoming) {
+		Entry victim = headSuperseded();
+		if (victim != null) {
+			return victim;
+		}
+		Map<Entry, Integer> hits = new IdentityHashMap<Entry, Integer>();
+		Set<ServiceKey> services = new HashSet<ServiceKey>();
+		for (NagiosCheckResult r : incoming.results) {
+			ServiceKey key = ServiceKey.of(r);
+			ArrayDeque<Entry> queued = byService.get(key);
+			Entry previous = queued == null ? null : queued.peekLast();
+			if (previous != null && services.add(key)) {
+				Integer count = hits.get(previous);
+				hits.put(previous, count == null ? 1 : count + 1);
+			}
+		}
+		for (Map.Entry<Entry, Integer> hit : hits.entrySet()) {
+			if (hit.getValue() >= hit.getKey().liveResults && (victim == null || hit.getKey().sequence < victim.sequence)) {
+				victim = hit.getKey();
+			}
+		}
+		return victim;
+	}
+
+	private static Entry head(ArrayDeque<Entry> entries) {
+		Entry head = entries.peekFirst();
+		while (head != null && head.removed) {
+			entries.pollFirst();
+			head = entries.peekFirst();
+		}
+		return head;
+	}
+
+	/**
+	 * @return the oldest entry whose results all have a newer result queued
+	 */
+	private Entry headSuperseded() {
+		Entry head = superseded.peekFirst();
+		while (head != null && (head.removed || head.liveResults > 0)) { // sent, shed, or live again since its newer results were shed
+			superseded.pollFirst();
+			head = superseded.peekFirst();
+		}
+		return head;
+	}
+
+	private void remove(Entry entry) {
+		entry.removed = true;
+		size--;
+		for (NagiosCheckResult r : entry.results) {
+			ServiceKey key = ServiceKey.of(r);
+			ArrayDeque<Entry> queued = byService.get(key);
+			if (queued == null) { // the same service twice in one entry
+				continue;
+			}
+			if (queued.peekLast() == entry) {
+				queued.pollLast();
+				Entry previous = unlinkRemoved(queued, false);
+				if (previous != null) {
+					previous.liveResults++; // its result is the latest again
+				}
+			}
+			unlinkRemoved(queued, true);
+			if (queued.isEmpty()) {
+				byService.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * @return the entry at the given end of the deque, once the removed ones have been unlinked
+	 */
+	private static Entry unlinkRemoved(ArrayDeque<Entry> entries, boolean first) {
+		Entry end = first ? entries.peekFirst() : entries.peekLast();
+		while (end != null && end.removed) {
+			if (first) {
+				entries.pollFirst();
+				end = entries.peekFirst();
+			}
+			else {
+				entries.pollLast();
+				end = entries.peekLast();
+			}
+		}
+		return end;
+	}
+}
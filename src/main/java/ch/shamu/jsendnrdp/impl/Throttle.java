@@ -0,0 +1,122 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+
+/**
+ * <p>
+ * Throttling of the requests sent to the NRDP server, by number of requests, number of check results and encoded bytes per second. Each
+ * limit is a {@link TokenBucket} with its own burst size, a null bucket means unlimited.
+ * <p>
+ * Instances are immutable, changing a limit creates a new throttle.
+ * <p>
+ * By default, a worker waits for its permits. With a {@link ThrottleTimer}, the task gives its worker back and is dispatched again once
+ * its permits are due, so that a throttled sender doesn't hold workers shared with other senders.
+ */
+class Throttle {
+
+	final static Throttle UNLIMITED = new Throttle(null, null, null, null);
+
+	private final TokenBucket requests;
+	private final TokenBucket results;
+	private final TokenBucket bytes;
+	private final ThrottleTimer timer;
+
+	private Throttle(TokenBucket requests, TokenBucket results, TokenBucket bytes, ThrottleTimer timer) {
+		this.requests = requests;
+		this.results = results;
+		this.bytes = bytes;
+		this.timer = timer;
+	}
+
+	/**
+	 * @param perSecond is the maximum rate (0 means unlimited)
+	 */
+	Throttle withRequestRate(double perSecond, double burst) {
+		return new Throttle(bucket(perSecond, burst), results, bytes, timer);
+	}
+
+	/**
+	 * @param requests is a request rate shared with other throttles, for example by the senders of an endpoint (null means unlimited)
+	 */
+	Throttle withRequestBucket(TokenBucket requests) {
+		return new Throttle(requests, results, bytes, timer);
+	}
+
+	Throttle withResultRate(double perSecond, double burst) {
+		return new Throttle(requests, bucket(perSecond, burst), bytes, timer);
+	}
+
+	Throttle withByteRate(double perSecond, double burst) {
+		return new Throttle(requests, results, bucket(perSecond, burst), timer);
+	}
+
+	/**
+	 * @param timer defers the tasks waiting for their permits instead of holding their worker (null means the worker waits)
+	 */
+	Throttle withTimer(ThrottleTimer timer) {
+		return new Throttle(requests, results, bytes, timer);
+	}
+
+	/**
+	 * Give the worker back while the task waits for its permits, the task runs again once they are due
+	 * @return false if the worker has to wait
+	 */
+	boolean defer(Runnable task, long waitNanos) {
+		return timer != null && timer.defer(task, waitNanos);
+	}
+
+	private static TokenBucket bucket(double perSecond, double burst) {
+		return perSecond > 0 ? new TokenBucket(perSecond, burst) : null;
+	}
+
+	/**
+	 * Reserve the permits needed to send the given batch in one request
+	 * @return the number of nanoseconds to wait before sending it
+	 */
+	long reserve(Collection<NagiosCheckResult> batch) {
+		long wait = 0;
+		if (requests != null) {
+			wait = requests.reserve(1);
+		}
+		if (results != null) {
+			wait = Math.max(wait, results.reserve(batch.size()));
+		}
+		if (bytes != null) {
+			long size = CheckResultXml.ENVELOPE_ENCODED_SIZE;
+			for (NagiosCheckResult r : batch) {
+				size += CheckResultXml.encodedSize(r);
+			}
+			wait = Math.max(wait, bytes.reserve(size));
+		}
+		return wait;
+	}
+
+	/**
+	 * Wait for the permits needed to send the given batch in one request, on the calling thread
+	 */
+	void await(Collection<NagiosCheckResult> batch) {
+		long wait = reserve(batch);
+		if (wait > 0) {
+			Uninterruptibles.sleepUninterruptibly(wait, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * @return the given batch limits, tightened so that a batch never exceeds what the buckets can release at once
+	 */
+	BatchSplitter limit(BatchSplitter splitter) {
+		if (results == null && bytes == null) {
+			return splitter;
+		}
+		return splitter.tightenedTo(results != null ? (int) results.getBurst() : 0, bytes != null ? (int) bytes.getBurst() : 0);
+	}
+
+	TokenBucket getRequests() {
+		return requests;
+	}
+}
@@ -0,0 +1,59 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the throttled tasks of senders sharing a dispatcher (see {@link NagiosSenderContext}) until their permits are due, then dispatches
+ * them again, so that a throttled sender doesn't keep the shared workers waiting. Parked tasks are bounded like queued ones : once the
+ * timer holds as many tasks as the dispatcher's capacity, throttled tasks wait on their worker again.
+ */
+class ThrottleTimer {
+
+	private final static long REDISPATCH_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final Dispatcher dispatcher;
+	private final int maxParkedTasks;
+	private final AtomicInteger parkedTasks = new AtomicInteger();
+	private final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("nrdp-throttle-timer"));
+
+	ThrottleTimer(Dispatcher dispatcher) {
+		this.dispatcher = dispatcher;
+		this.maxParkedTasks = dispatcher.getCapacity();
+	}
+
+	/**
+	 * @return false if too many tasks are already parked, the worker has to wait
+	 */
+	boolean defer(Runnable task, long delayNanos) {
+		while (true) {
+			int parked = parkedTasks.get();
+			if (maxParkedTasks > 0 && parked >= maxParkedTasks) {
+				return false;
+			}
+			if (parkedTasks.compareAndSet(parked, parked + 1)) {
+				break;
+			}
+		}
+		timer.schedule(() -> redispatch(task), delayNanos, TimeUnit.NANOSECONDS);
+		return true;
+	}
+
+	private void redispatch(Runnable task) {
+		if (dispatcher.offer(task)) {
+			parkedTasks.decrementAndGet();
+		}
+		else { // the shared queue is full, the task already holds its permits
+			timer.schedule(() -> redispatch(task), REDISPATCH_BACKOFF_NANOS, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	int getParkedTasks() {
+		return parkedTasks.get();
+	}
+
+	void shutdown() {
+		timer.shutdownNow();
+	}
+}
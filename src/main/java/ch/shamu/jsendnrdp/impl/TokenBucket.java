@@ -0,0 +1,72 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Lock-free token bucket, implemented as a generic cell rate algorithm : instead of a number of tokens, the bucket keeps the theoretical
+ * time at which it will be full again, which is updated with a single CAS.
+ * <p>
+ * Permits are reserved, never refused : a caller asking for more permits than available is told how long to wait, and the debt is charged
+ * to the following callers. Asking for more permits than the burst size is allowed and costs the corresponding wait.
+ */
+class TokenBucket {
+
+	private final double rate;
+	private final double burst;
+	private final double nanosPerPermit;
+	private final long burstNanos;
+	private final AtomicLong fullAt; // the bucket is full at any time after this one
+
+	/**
+	 * @param rate  is the number of permits refilled per second
+	 * @param burst is the capacity of the bucket, the number of permits that can be taken at once after an idle period (at least 1)
+	 */
+	TokenBucket(double rate, double burst) {
+		this(rate, burst, true);
+	}
+
+	private TokenBucket(double rate, double burst, boolean full) {
+		if (rate <= 0) {
+			throw new IllegalArgumentException("rate must be positive : " + rate);
+		}
+		this.rate = rate;
+		this.burst = Math.max(1, burst);
+		this.nanosPerPermit = TimeUnit.SECONDS.toNanos(1) / rate;
+		this.burstNanos = (long) (this.burst * nanosPerPermit);
+		this.fullAt = new AtomicLong(System.nanoTime() + (full ? 0 : burstNanos - (long) nanosPerPermit));
+	}
+
+	/**
+	 * @return a bucket storing up to one second of permits, starting with a single one, like Guava's RateLimiter : requests are evenly spaced
+	 *         until the rate is not used up, then they can catch up
+	 */
+	static TokenBucket oneSecondBurst(double rate) {
+		return new TokenBucket(rate, Math.ceil(rate), false);
+	}
+
+	/**
+	 * @return the number of nanoseconds the caller must wait before using the reserved permits
+	 */
+	long reserve(long permits) {
+		long cost = (long) (permits * nanosPerPermit);
+		while (true) {
+			long now = System.nanoTime();
+			long current = fullAt.get();
+			long start = current - now > 0 ? current : now;
+			long next = start + cost;
+			if (fullAt.compareAndSet(current, next)) {
+				return Math.max(0, next - burstNanos - now);
+			}
+		}
+	}
+
+	double getRate() {
+		return rate;
+	}
+
+	double getBurst() {
+		return burst;
+	}
+}
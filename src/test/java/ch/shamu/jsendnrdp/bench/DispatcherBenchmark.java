@@ -0,0 +1,75 @@
+package ch.shamu.jsendnrdp.bench;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import ch.shamu.jsendnrdp.impl.Dispatcher;
+import ch.shamu.jsendnrdp.impl.ExecutorDispatcher;
+import ch.shamu.jsendnrdp.impl.RingBufferDispatcher;
+
+/**
+ * <p>
+ * Compares the job hand-off throughput of the dispatchers used by the non blocking sender, with many producer threads offering no-op jobs.
+ * <p>
+ * This is not a unit test, run it manually : mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=ch.shamu.jsendnrdp.bench.DispatcherBenchmark
+ * <p>
+ * Run it on a machine with more cores than workers : on a single core, producers and workers take turns and the figures say nothing about
+ * contention.
+ */
+public class DispatcherBenchmark {
+
+	private final static int NB_WORKERS = 4;
+	private final static int QUEUE_SIZE = 10000;
+	private final static int JOBS_PER_PRODUCER = 500000;
+	private final static int ROUNDS = 5;
+
+	public static void main(String[] args) throws InterruptedException {
+		int[] producerCounts = { 1, 4, 16, 64 };
+		for (int round = 0; round < ROUNDS; round++) {
+			boolean warmUp = round < ROUNDS - 1;
+			for (int producers : producerCounts) {
+				double executor = run(new ExecutorDispatcher(new ScheduledThreadPoolExecutor(NB_WORKERS), QUEUE_SIZE), producers);
+				double ring = run(new RingBufferDispatcher(NB_WORKERS, QUEUE_SIZE, "bench"), producers);
+				if (!warmUp) {
+					System.out.printf("%3d producers : ScheduledThreadPoolExecutor %,12.0f jobs/s | RingBufferDispatcher %,12.0f jobs/s%n",
+							producers, executor, ring);
+				}
+			}
+		}
+	}
+
+	private static double run(final Dispatcher dispatcher, int nbProducers) throws InterruptedException {
+		final long total = (long) nbProducers * JOBS_PER_PRODUCER;
+		final LongAdder executed = new LongAdder();
+		final Runnable job = executed::increment;
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] producers = new Thread[nbProducers];
+		for (int p = 0; p < nbProducers; p++) {
+			producers[p] = new Thread(() -> {
+				try {
+					start.await();
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < JOBS_PER_PRODUCER; i++) {
+					while (!dispatcher.offer(job)) {
+						Thread.yield();
+					}
+				}
+			});
+			producers[p].start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		while (executed.sum() < total) {
+			Thread.sleep(1);
+		}
+		long elapsed = System.nanoTime() - begin;
+		dispatcher.shutdown();
+		return total * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+	}
+}
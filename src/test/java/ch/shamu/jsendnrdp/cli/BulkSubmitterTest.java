@@ -0,0 +1,80 @@
+package ch.shamu.jsendnrdp.cli;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+import ch.shamu.jsendnrdp.domain.State;
+import ch.shamu.jsendnrdp.test.utils.NrdpTestServer;
+
+public class BulkSubmitterTest {
+
+	private final static int SERVER_PORT = 53662;
+	private final static String[] ARGS = { "--url", "http://localhost:" + SERVER_PORT + "/nrdp/", "--token", "sq" };
+
+	private NrdpTestServer testServer = new NrdpTestServer(SERVER_PORT);
+	private ByteArrayOutputStream out = new ByteArrayOutputStream();
+	private ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+	@Before
+	public void setup() throws Exception {
+		testServer.start();
+		testServer.setMockResponseData("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<result>\n  <status>0</status>\n  <message>OK</message>\n"
+				+ "</result>\n");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		testServer.stop();
+	}
+
+	@Test
+	public void testSubmitTsv() {
+		String input = "web1\tdisk\t2\tDISK CRITICAL\nweb2\tdisk\tOK\tDISK OK\n\nweb3\tmalformed\n";
+		int status = run(input, ARGS);
+
+		assertEquals(BulkSubmitter.PARTIAL_FAILURE, status); // because of the malformed line
+		assertThat(out.toString(), containsString("2 check results delivered, 0 failed, 1 malformed lines skipped"));
+		assertThat(err.toString(), containsString("-:4 : malformed line skipped"));
+		assertThat(String.valueOf(testServer.getXmlData()), containsString("<hostname>web2</hostname>"));
+	}
+
+	@Test
+	public void testSubmitJsonLines() {
+		String input = "{\"host\": \"web1\", \"service\": \"load\", \"state\": 1, \"output\": \"LOAD \\\"high\\\"\"}\n"
+				+ "{\"hostname\": \"web2\", \"servicename\": \"load\", \"state\": \"critical\", \"message\": \"LOAD\"}\n";
+		int status = run(input, "--format", "jsonl", ARGS[0], ARGS[1], ARGS[2], ARGS[3]);
+
+		assertEquals(BulkSubmitter.SUCCESS, status);
+		assertThat(out.toString(), containsString("2 check results delivered, 0 failed, 0 malformed lines skipped"));
+		assertThat(String.valueOf(testServer.getXmlData()), containsString("<output>LOAD &quot;high&quot;</output>"));
+	}
+
+	@Test
+	public void testParseStates() {
+		NagiosCheckResult r = CheckResultParser.tsv("|").parse("web1|http|3|HTTP UNKNOWN|timeout");
+		assertEquals(State.UNKNOWN, r.getState());
+		assertEquals("HTTP UNKNOWN|timeout", r.getMessage());
+	}
+
+	@Test
+	public void testMissingOptions() {
+		assertEquals(BulkSubmitter.ERROR, run("", "--url", "http://localhost/nrdp/"));
+		assertThat(err.toString(), containsString("usage"));
+	}
+
+	private int run(String input, String... args) {
+		return BulkSubmitter.run(args, new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), new PrintStream(out), new PrintStream(
+				err));
+	}
+}
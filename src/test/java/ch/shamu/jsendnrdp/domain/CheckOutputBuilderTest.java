@@ -0,0 +1,100 @@
+package ch.shamu.jsendnrdp.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class CheckOutputBuilderTest {
+
+	@Test
+	public void testOutputPerfDataAndLongOutput() {
+		CheckOutputBuilder builder = new CheckOutputBuilder();
+		NagiosCheckResult result = builder.output("DISK OK - ").output(12.5, 1).output(" GB free")//
+				.perfData("/var", 87.5, "%", 90, 95, 0, 100)//
+				.perfData("inodes", 1204, null)//
+				.perfData("read time", 0.1 + 0.2, "s", "~:1", null, Double.NaN, Double.NaN)//
+				.longOutput("first line").longOutput("second line")//
+				.build("localhost", "disk", State.OK);
+
+		assertEquals("DISK OK - 12.5 GB free | /var=87.5%;90;95;0;100 inodes=1204 'read time'=0.3s;~:1\nfirst line\nsecond line",
+				result.getMessage());
+		assertEquals(State.OK, result.getState());
+		assertFalse(builder.isTruncated());
+
+		builder.reset().output("reused");
+		assertEquals("reused", builder.message());
+	}
+
+	@Test
+	public void testNumberFormatting() {
+		assertEquals("0", decimal(-0.0001, 3));
+		assertEquals("-1.05", decimal(-1.05, 3));
+		assertEquals("0.001", decimal(0.001, 6));
+		assertEquals("100", decimal(99.9999, 2));
+		assertEquals("0.000123", decimal(1.23e-4, 6));
+		assertEquals("12345678901234", decimal(1.2345678901234e13, 3));
+		assertEquals("-100000000000000000000", decimal(-1e20, 3));
+		assertEquals("NaN", decimal(Double.NaN, 3));
+
+		CheckOutputBuilder builder = new CheckOutputBuilder().output("x");
+		builder.perfData("it's", Double.NaN, "ms", Double.NaN, Double.NaN, 0, Double.NaN);
+		assertEquals("x | 'it''s'=U;;;0", builder.message());
+	}
+
+	@Test
+	public void testPerfDataSeparatorAndLineBreaksAreRejected() {
+		CheckOutputBuilder builder = new CheckOutputBuilder().output("OK");
+		assertRejected(() -> builder.output("a | b"));
+		assertRejected(() -> builder.output("two\nlines"));
+		assertRejected(() -> builder.output("two\rlines"));
+		assertRejected(() -> builder.longOutput("a | b"));
+		assertRejected(() -> builder.perfData("a|b", 1, null));
+		assertRejected(() -> builder.perfData("a", 1, "m s"));
+		assertRejected(() -> builder.perfData("a", 1, "ms;"));
+		assertRejected(() -> builder.perfData("a", 1, null, "10:20|", null, Double.NaN, Double.NaN));
+		assertRejected(() -> builder.perfData("a", 1, null, null, "~:10\n", Double.NaN, Double.NaN));
+
+		builder.longOutput("line breaks\nare fine in the long output");
+		assertEquals("OK\nline breaks\nare fine in the long output", builder.message());
+	}
+
+	private static void assertRejected(Runnable append) {
+		try {
+			append.run();
+			fail("the text should have been rejected");
+		}
+		catch (IllegalArgumentException expected) {
+			//
+		}
+	}
+
+	@Test
+	public void testMaximumOutputLength() {
+		CheckOutputBuilder builder = new CheckOutputBuilder(30).output("CRITICAL - 3 errors")//
+				.perfData("errors", 3, null).perfData("warnings", 12, null)//
+				.longOutput("error 1");
+
+		// the output and the first perf data entry fit, the second entry and the long output don't
+		assertEquals("CRITICAL - 3 errors | errors=3", builder.message());
+		assertTrue(builder.isTruncated());
+
+		builder.reset().output("été 😀 déjà vu");
+		String message = builder.message();
+		assertTrue(message.getBytes(StandardCharsets.UTF_8).length <= 30);
+
+		builder = new CheckOutputBuilder(9).output("été 😀 vu");
+		assertEquals("été ", builder.message()); // never splits the surrogate pair
+		assertTrue(builder.isTruncated());
+	}
+
+	private static String decimal(double value, int decimals) {
+		StringBuilder b = new StringBuilder();
+		CheckOutputBuilder.appendDecimal(b, value, decimals);
+		return b.toString();
+	}
+}
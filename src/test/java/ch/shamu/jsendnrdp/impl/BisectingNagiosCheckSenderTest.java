@@ -0,0 +1,178 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ch.shamu.jsendnrdp.NRDPException;
+import ch.shamu.jsendnrdp.RejectedResultsException;
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+import ch.shamu.jsendnrdp.domain.State;
+import ch.shamu.jsendnrdp.test.utils.RecordingSender;
+
+public class BisectingNagiosCheckSenderTest {
+
+	/**
+	 * @return a fake NRDP server rejecting any batch containing a result for the host "unknown"
+	 */
+	private static RecordingSender rejectingServer() {
+		RecordingSender server = new RecordingSender();
+		server.rejectHost("unknown");
+		return server;
+	}
+
+	private List<NagiosCheckResult> batch(int size, int... poisonIndexes) {
+		List<NagiosCheckResult> results = new ArrayList<NagiosCheckResult>();
+		for (int i = 0; i < size; i++) {
+			results.add(new NagiosCheckResult("host" + i, "service", State.OK, "fine"));
+		}
+		for (int i : poisonIndexes) {
+			results.set(i, new NagiosCheckResult("unknown", "service" + i, State.CRITICAL, "poison"));
+		}
+		return results;
+	}
+
+	@Test
+	public void testGoodBatchIsSentOnce() throws NRDPException, IOException {
+		RecordingSender server = rejectingServer();
+		BisectingNagiosCheckSender sender = new BisectingNagiosCheckSender(server, 100);
+
+		sender.send(batch(10));
+
+		Assert.assertEquals(1, server.getRequests());
+		Assert.assertEquals(10, server.getSent().size());
+		Assert.assertEquals(0, sender.getExtraRequests());
+	}
+
+	@Test
+	public void testPoisonResultsAreIsolated() throws NRDPException, IOException {
+		RecordingSender server = rejectingServer();
+		BisectingNagiosCheckSender sender = new BisectingNagiosCheckSender(server, 100);
+		List<NagiosCheckResult> results = batch(64, 5, 40);
+
+		try {
+			sender.send(results);
+			Assert.fail("expected the poison results to be rejected");
+		}
+		catch (RejectedResultsException e) {
+			Assert.assertEquals(2, e.getRejectedResults().size());
+			Assert.assertTrue(e.getRejectedResults().contains(results.get(5)));
+			Assert.assertTrue(e.getRejectedResults().contains(results.get(40)));
+			Assert.assertEquals(62, e.getDeliveredResults().size());
+		}
+
+		Assert.assertEquals(62, server.getSent().size());
+		Assert.assertEquals(2, sender.getPoisonResultsFound());
+		Assert.assertTrue(sender.getExtraRequests() <= 2 * 2 * 6);
+	}
+
+	@Test
+	public void testExtraRequestsAreBounded() throws NRDPException, IOException {
+		RecordingSender server = rejectingServer();
+		BisectingNagiosCheckSender sender = new BisectingNagiosCheckSender(server, 4);
+
+		try {
+			sender.send(batch(64, 1, 17, 33, 49));
+			Assert.fail("expected the poison results to be rejected");
+		}
+		catch (RejectedResultsException e) {
+			Assert.assertEquals(64, e.getRejectedResults().size() + e.getDeliveredResults().size());
+		}
+
+		Assert.assertEquals(5, server.getRequests());
+		Assert.assertEquals(4, sender.getExtraRequests());
+	}
+
+	@Test
+	public void testServerWideFailureIsNotBisected() throws IOException {
+		RecordingSender server = rejectingServer();
+		NRDPException failure = new NRDPException("NRDP server returned with code -1 and message BAD TOKEN");
+		server.failFromRequest(1, failure);
+		BisectingNagiosCheckSender sender = new BisectingNagiosCheckSender(server, 100);
+
+		try {
+			sender.send(batch(64, 5));
+			Assert.fail("expected the server failure");
+		}
+		catch (NRDPException e) {
+			Assert.assertSame(failure, e);
+		}
+		Assert.assertEquals(1, server.getRequests());
+		Assert.assertEquals(0, sender.getPoisonResultsFound());
+	}
+
+	@Test
+	public void testInterruptedBisectionKeepsTheDeliveredResults() throws NRDPException {
+		RecordingSender server = rejectingServer();
+		IOException failure = new IOException("connection refused");
+		server.failFromRequest(3, failure); // the first half is delivered, then the server is unreachable
+		BisectingNagiosCheckSender sender = new BisectingNagiosCheckSender(server, 100);
+		List<NagiosCheckResult> results = batch(64, 40);
+
+		try {
+			sender.send(results);
+			Assert.fail("expected the bisection to be interrupted");
+		}
+		catch (RejectedResultsException e) {
+			Assert.assertSame(failure, e.getCause());
+			Assert.assertEquals(results.subList(0, 32), e.getDeliveredResults());
+			Assert.assertEquals(32, e.getRejectedResults().size());
+		}
+		catch (IOException e) {
+			Assert.fail("the delivered results should not be lost : " + e);
+		}
+	}
+
+	@Test
+	public void testExtraRequestsAreThrottled() throws Exception {
+		RecordingSender server = rejectingServer();
+		NonBlockingNagiosCheckSender nonBlockingSender = new NonBlockingNagiosCheckSender(new BisectingNagiosCheckSender(server, 100), 1, 10,
+				10);
+		long start = System.nanoTime();
+		try {
+			nonBlockingSender.sendAsync(batch(4, 1)).join();
+			Assert.fail("expected the poison result to be rejected");
+		}
+		catch (CompletionException e) {
+			Assert.assertTrue(e.getCause() instanceof RejectedResultsException);
+		}
+		finally {
+			nonBlockingSender.shutdown();
+		}
+		// 10 requests per second, without burst
+		Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100 * (server.getRequests() - 1) - 20));
+	}
+
+	@Test
+	public void testOnlyPoisonResultsFail() throws Exception {
+		RecordingSender server = rejectingServer();
+		NonBlockingNagiosCheckSender nonBlockingSender = new NonBlockingNagiosCheckSender(new BisectingNagiosCheckSender(server, 100), 1, 10,
+				0);
+		List<NagiosCheckResult> results = batch(8, 3);
+		try {
+			List<CompletableFuture<NagiosCheckResult>> futures = nonBlockingSender.sendEachAsync(results);
+
+			Assert.assertEquals(8, futures.size());
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					Assert.assertSame(results.get(i), futures.get(i).join());
+					Assert.assertNotEquals(3, i);
+				}
+				catch (CompletionException e) {
+					Assert.assertEquals(3, i);
+					Assert.assertTrue(e.getCause() instanceof RejectedResultsException);
+				}
+			}
+			Assert.assertEquals(7, server.getSent().size());
+		}
+		finally {
+			nonBlockingSender.shutdown();
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ch.shamu.jsendnrdp.NRDPException;
+import ch.shamu.jsendnrdp.NagiosCheckSender;
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+import ch.shamu.jsendnrdp.domain.State;
+import ch.shamu.jsendnrdp.test.utils.RecordingSender;
+
+public class ChangeOnlyNagiosCheckSenderTest {
+
+	@Test
+	public void testOnlyChangesAreForwarded() throws NRDPException, IOException {
+		RecordingSender recorder = new RecordingSender();
+		ChangeOnlyNagiosCheckSender sender = new ChangeOnlyNagiosCheckSender(recorder, 0, TimeUnit.MILLISECONDS);
+
+		NagiosCheckResult ok = new NagiosCheckResult("localhost", "prout", State.OK, "fine");
+		NagiosCheckResult other = new NagiosCheckResult("localhost", "other", State.OK, "fine");
+		NagiosCheckResult critical = new NagiosCheckResult("localhost", "prout", State.CRITICAL, "broken");
+
+		sender.send(Arrays.asList(ok, other));
+		sender.send(Arrays.asList(new NagiosCheckResult("localhost", "prout", State.OK, "fine"), other));
+		sender.send(Collections.singletonList(critical));
+		sender.send(Collections.singletonList(critical));
+		sender.send(Collections.singletonList(ok));
+
+		Assert.assertEquals(Arrays.asList(ok, other, critical, ok), recorder.getSent());
+		Assert.assertEquals(4, sender.getForwardedResults());
+		Assert.assertEquals(3, sender.getSuppressedResults());
+		sender.shutdown();
+	}
+
+	@Test
+	public void testUnchangedResultsAreRefreshed() throws NRDPException, IOException, InterruptedException {
+		RecordingSender recorder = new RecordingSender();
+		ChangeOnlyNagiosCheckSender sender = new ChangeOnlyNagiosCheckSender(recorder, 300, TimeUnit.MILLISECONDS);
+
+		NagiosCheckResult ok = new NagiosCheckResult("localhost", "prout", State.OK, "fine");
+		sender.send(Collections.singletonList(ok));
+		Thread.sleep(100);
+		sender.send(Collections.singletonList(ok)); // unchanged, doesn't postpone the refresh
+		Assert.assertEquals(1, recorder.getSent().size());
+
+		long start = System.currentTimeMillis();
+		while (recorder.getSent().size() < 3 && System.currentTimeMillis() - start < 5000) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(Arrays.asList(ok, ok, ok), recorder.getSent());
+		Assert.assertEquals(2, sender.getRefreshedResults());
+
+		sender.forget("localhost", "prout");
+		Thread.sleep(500);
+		Assert.assertEquals(3, recorder.getSent().size());
+		sender.shutdown();
+	}
+
+	@Test
+	public void testAsyncFailuresAreForgotten() throws Exception {
+		final AtomicInteger attempts = new AtomicInteger();
+		NagiosCheckSender failingSender = new NagiosCheckSender() {
+
+			public void send(Collection<NagiosCheckResult> checkResults) throws IOException {
+				attempts.incrementAndGet();
+				throw new IOException("NRDP server unreachable");
+			}
+
+			public void shutdown() {
+			}
+		};
+		NonBlockingNagiosCheckSender nonBlockingSender = new NonBlockingNagiosCheckSender(failingSender, 1, 10, 0);
+		nonBlockingSender.setErrorHandler((results, e) -> {
+			// expected
+		});
+		ChangeOnlyNagiosCheckSender sender = new ChangeOnlyNagiosCheckSender(nonBlockingSender, 0, TimeUnit.MILLISECONDS);
+		NagiosCheckResult ok = new NagiosCheckResult("localhost", "prout", State.OK, "fine");
+
+		sender.send(Collections.singletonList(ok));
+		long start = System.currentTimeMillis();
+		while (nonBlockingSender.getFailedRequests() < 1 && System.currentTimeMillis() - start < 5000) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(1, nonBlockingSender.getFailedRequests()); // reported to the error handler
+
+		sender.send(Collections.singletonList(ok)); // never reached Nagios, so it is not suppressed
+		start = System.currentTimeMillis();
+		while (attempts.get() < 2 && System.currentTimeMillis() - start < 5000) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(2, attempts.get());
+		Assert.assertEquals(0, sender.getSuppressedResults());
+		sender.shutdown();
+	}
+
+	@Test
+	public void testSlowSendDoesNotHoldBackOtherServices() throws Exception {
+		NagiosCheckSender slowForOneHost = new NagiosCheckSender() {
+
+			public void send(Collection<NagiosCheckResult> checkResults) throws IOException {
+				if (checkResults.iterator().next().getHost().equals("slow")) {
+					try {
+						Thread.sleep(500);
+					}
+					catch (InterruptedException e) {
+						throw new IOException(e);
+					}
+				}
+			}
+
+			public void shutdown() {
+			}
+		};
+		final ChangeOnlyNagiosCheckSender sender = new ChangeOnlyNagiosCheckSender(slowForOneHost, 0, TimeUnit.MILLISECONDS);
+		Thread slowCaller = new Thread(() -> {
+			try {
+				sender.send(Collections.singletonList(new NagiosCheckResult("slow", "prout", State.OK, "fine")));
+			}
+			catch (NRDPException | IOException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		slowCaller.start();
+		Thread.sleep(50);
+
+		long start = System.nanoTime();
+		sender.send(Collections.singletonList(new NagiosCheckResult("fast", "prout", State.OK, "fine")));
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		Assert.assertTrue("the fast service waited " + elapsedMillis + "ms", elapsedMillis < 200);
+		slowCaller.join();
+		Assert.assertEquals(2, sender.getForwardedResults());
+		sender.shutdown();
+	}
+}
@@ -0,0 +1,102 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ch.shamu.jsendnrdp.NRDPException;
+import ch.shamu.jsendnrdp.NagiosCheckSender;
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+import ch.shamu.jsendnrdp.domain.State;
+
+public class CheckResultSpoolSenderTest {
+
+	@Rule
+	public TemporaryFolder checkResults = new TemporaryFolder();
+
+	@Test
+	public void testResultFilesAreWritten() throws NRDPException, IOException {
+		NagiosCheckSender sender = new CheckResultSpoolSender(checkResults.getRoot().toPath(), 2);
+
+		sender.send(Arrays.asList(new NagiosCheckResult("localhost", "prout", State.CRITICAL, "line 1\nline 2 \\o/"),
+				new NagiosCheckResult("localhost", "disk", State.OK, "fine"), new NagiosCheckResult("other", "load", State.WARNING, "high")));
+
+		File[] files = checkResults.getRoot().listFiles();
+		Arrays.sort(files);
+		List<String> names = Arrays.stream(files).map(File::getName).collect(Collectors.toList());
+		Assert.assertEquals(names.toString(), 4, files.length);
+		for (String name : names) {
+			Assert.assertTrue(name, name.matches("c[A-Za-z0-9]{6}(\\.ok)?"));
+			if (!name.endsWith(".ok")) {
+				Assert.assertTrue(names.contains(name + ".ok"));
+			}
+		}
+
+		String content = "";
+		for (File file : files) {
+			content += new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+		}
+		Assert.assertEquals(2, content.split("### NRDP Check Result File ###", -1).length - 1);
+		Assert.assertTrue(content.contains("host_name=localhost\nservice_description=prout\ncheck_type=1\n"));
+		Assert.assertTrue(content.contains("return_code=2\noutput=line 1\\nline 2 \\\\o/\n"));
+		Assert.assertTrue(content.contains("host_name=other\nservice_description=load\n"));
+		Assert.assertTrue(content.contains("return_code=1\noutput=high\n"));
+	}
+
+	@Test
+	public void testNoFileIsLeftWhenTheMoveFails() throws NRDPException, IOException {
+		NagiosCheckSender sender = new CheckResultSpoolSender(checkResults.getRoot().toPath(), 2) {
+
+			@Override
+			Path claimFileName() throws IOException {
+				Path target = super.claimFileName();
+				// remove the temporary file from under the sender, so that moving it fails
+				try (DirectoryStream<Path> temporaries = Files.newDirectoryStream(getCheckResultDirectory(), ".nrdp*.tmp")) {
+					for (Path temporary : temporaries) {
+						Files.delete(temporary);
+					}
+				}
+				return target;
+			}
+		};
+
+		assertSendFails(sender);
+	}
+
+	@Test
+	public void testNoFileIsLeftWhenTheOkFileCantBeCreated() throws NRDPException, IOException {
+		NagiosCheckSender sender = new CheckResultSpoolSender(checkResults.getRoot().toPath(), 2) {
+
+			@Override
+			void markReady(Path resultFile) throws IOException {
+				throw new IOException("No space left on device");
+			}
+		};
+
+		assertSendFails(sender);
+	}
+
+	private void assertSendFails(NagiosCheckSender sender) throws NRDPException {
+		try {
+			sender.send(Arrays.asList(new NagiosCheckResult("localhost", "prout", State.CRITICAL, "ko"),
+					new NagiosCheckResult("localhost", "disk", State.OK, "fine")));
+			Assert.fail("the send should have failed");
+		}
+		catch (IOException e) {
+			// expected
+		}
+		// neither the temporary file, nor a result file Nagios would never read, nor its placeholder
+		Assert.assertEquals(Arrays.toString(checkResults.getRoot().list()), 0, checkResults.getRoot().list().length);
+	}
+}
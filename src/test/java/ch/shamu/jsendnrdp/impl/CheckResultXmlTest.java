@@ -0,0 +1,60 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.message.BasicNameValuePair;
+import org.junit.Assert;
+import org.junit.Test;
+
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+import ch.shamu.jsendnrdp.domain.State;
+
+public class CheckResultXmlTest {
+
+	private static int actualEncodedSize(String xml) {
+		return URLEncodedUtils.format(Collections.singletonList(new BasicNameValuePair("XMLDATA", xml)), StandardCharsets.UTF_8).length()
+				- "XMLDATA=".length();
+	}
+
+	@Test
+	public void testEncodedSizeMatchesFormEncoding() {
+		NagiosCheckResult[] results = { new NagiosCheckResult("localhost", "prout", State.CRITICAL, "testPayload"),
+				new NagiosCheckResult("web-01.example.com", "disk /var", State.WARNING, "DISK WARNING - free space: /var 42 MB (8%);"),
+				new NagiosCheckResult("hôte", "service \"quoted\" & <tagged>", State.UNKNOWN, "line 1\nline 2 € 'single' \t*_-."),
+				new NagiosCheckResult("host", "service", State.OK, "") };
+
+		int envelope = actualEncodedSize(CheckResultXml.toXml(Collections.<NagiosCheckResult> emptyList()));
+		Assert.assertEquals(envelope, CheckResultXml.ENVELOPE_ENCODED_SIZE);
+
+		int total = CheckResultXml.ENVELOPE_ENCODED_SIZE;
+		for (NagiosCheckResult r : results) {
+			Assert.assertEquals(r.getMessage(), actualEncodedSize(CheckResultXml.toXml(Collections.singletonList(r))) - envelope,
+					CheckResultXml.encodedSize(r));
+			total += CheckResultXml.encodedSize(r);
+		}
+		Assert.assertEquals(actualEncodedSize(CheckResultXml.toXml(Arrays.asList(results))), total);
+	}
+
+	@Test
+	public void testSplitByBytes() {
+		NagiosCheckResult r = new NagiosCheckResult("localhost", "prout", State.CRITICAL, "testPayload");
+		int size = CheckResultXml.encodedSize(r);
+		BatchSplitter splitter = new BatchSplitter(0, CheckResultXml.ENVELOPE_ENCODED_SIZE + 2 * size);
+
+		Assert.assertEquals(1, splitter.split(Arrays.asList(r, r)).size());
+		Assert.assertEquals(3, splitter.split(Arrays.asList(r, r, r, r, r)).size());
+	}
+
+	@Test
+	public void testSplitByCount() {
+		NagiosCheckResult r = new NagiosCheckResult("localhost", "prout", State.CRITICAL, "testPayload");
+		BatchSplitter splitter = new BatchSplitter(2, 0);
+
+		Assert.assertEquals(1, splitter.split(Arrays.asList(r, r)).size());
+		Assert.assertEquals(Arrays.asList(2, 2, 1), Arrays.asList(splitter.split(Arrays.asList(r, r, r, r, r)).stream().map(b -> b.size())
+				.toArray()));
+	}
+}
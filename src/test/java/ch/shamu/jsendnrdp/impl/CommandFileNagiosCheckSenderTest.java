@@ -0,0 +1,117 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ch.shamu.jsendnrdp.NRDPException;
+import ch.shamu.jsendnrdp.NRDPRejectionException;
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+import ch.shamu.jsendnrdp.domain.State;
+
+public class CommandFileNagiosCheckSenderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File commandFile;
+
+	@Before
+	public void createPipe() throws IOException, InterruptedException {
+		commandFile = new File(folder.getRoot(), "nagios.cmd");
+		int exitCode;
+		try {
+			exitCode = new ProcessBuilder("mkfifo", commandFile.getAbsolutePath()).start().waitFor();
+		}
+		catch (IOException e) {
+			exitCode = -1;
+		}
+		Assume.assumeTrue("mkfifo is not available", exitCode == 0);
+	}
+
+	@Test
+	public void testCommandsAreWrittenToThePipe() throws Exception {
+		final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+		Thread nagios = new Thread(() -> {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(commandFile), StandardCharsets.UTF_8))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					lines.add(line);
+				}
+			}
+			catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		nagios.start();
+
+		CommandFileNagiosCheckSender sender = new CommandFileNagiosCheckSender(commandFile.toPath(), 2000);
+		sender.send(Arrays.asList(new NagiosCheckResult("localhost", "prout", State.CRITICAL, "line 1\nline 2"),
+				new NagiosCheckResult("localhost", "disk", State.OK, "fine; really")));
+		sender.shutdown();
+		nagios.join(2000);
+
+		Assert.assertEquals(2, lines.size());
+		Assert.assertTrue(lines.get(0), lines.get(0).matches("\\[\\d+\\] PROCESS_SERVICE_CHECK_RESULT;localhost;prout;2;line 1\\\\nline 2"));
+		Assert.assertTrue(lines.get(1), lines.get(1).matches("\\[\\d+\\] PROCESS_SERVICE_CHECK_RESULT;localhost;disk;0;fine; really"));
+	}
+
+	@Test(expected = IOException.class)
+	public void testMissingReader() throws NRDPException, IOException {
+		CommandFileNagiosCheckSender sender = new CommandFileNagiosCheckSender(commandFile.toPath(), 100);
+		try {
+			sender.send(Collections.singletonList(new NagiosCheckResult("localhost", "prout", State.CRITICAL, "nobody listens")));
+		}
+		finally {
+			sender.shutdown();
+		}
+	}
+
+	@Test
+	public void testBlocksFitInPipeBuffer() throws NRDPException {
+		List<NagiosCheckResult> results = new ArrayList<NagiosCheckResult>();
+		StringBuilder huge = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			huge.append('é');
+		}
+		results.add(new NagiosCheckResult("localhost", "huge", State.WARNING, huge.toString()));
+		for (int i = 0; i < 200; i++) {
+			results.add(new NagiosCheckResult("localhost", "service" + i, State.OK, "output of service " + i));
+		}
+
+		int lines = 0;
+		for (ByteBuffer block : CommandFileNagiosCheckSender.toBlocks(results, 1234567890L)) {
+			Assert.assertTrue(block.remaining() <= CommandFileNagiosCheckSender.PIPE_BUF);
+			String text = new String(block.array(), 0, block.limit(), StandardCharsets.UTF_8);
+			Assert.assertTrue("blocks end with a complete line", text.endsWith("\n"));
+			Assert.assertFalse("no broken UTF-8 sequence", text.contains("�"));
+			lines += text.split("\n").length;
+		}
+		Assert.assertEquals(201, lines);
+	}
+
+	@Test(expected = NRDPRejectionException.class)
+	public void testNamesTooLongForPipeBufferAreRejected() throws NRDPException {
+		StringBuilder huge = new StringBuilder();
+		for (int i = 0; i < CommandFileNagiosCheckSender.PIPE_BUF; i++) {
+			huge.append('s');
+		}
+		CommandFileNagiosCheckSender.toBlocks(Collections.singletonList(new NagiosCheckResult("localhost", huge.toString(), State.OK, "ok")),
+				1234567890L);
+	}
+}
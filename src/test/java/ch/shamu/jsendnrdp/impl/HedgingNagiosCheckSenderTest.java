@@ -0,0 +1,136 @@
+package ch.shamu.jsendnrdp.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import ch.shamu.jsendnrdp.NRDPException;
+import ch.shamu.jsendnrdp.NagiosCheckSender;
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+import ch.shamu.jsendnrdp.domain.State;
+import ch.shamu.jsendnrdp.test.utils.RecordingSender;
+
+public class HedgingNagiosCheckSenderTest {
+
+	private final Collection<NagiosCheckResult> results = Collections.singletonList(new NagiosCheckResult("localhost", "prout", State.OK,
+			"ok"));
+
+	@Test
+	public void testSlowRequestIsHedged() throws Exception {
+		RecordingSender slowPrimary = fakeServer(300, false);
+		RecordingSender secondary = fakeServer(0, false);
+		HedgingNagiosCheckSender sender = new HedgingNagiosCheckSender(slowPrimary, secondary, 0.95, 20, TimeUnit.MILLISECONDS, 1, 4, 1);
+
+		long start = System.nanoTime();
+		sender.send(results);
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertTrue("The hedge should win, send took " + elapsedMillis + "ms", elapsedMillis < 150);
+		assertEquals(1, secondary.getRequests());
+		assertEquals(1, sender.getHedgedRequests());
+		assertEquals(1, sender.getSecondaryWins());
+		Thread.sleep(400);
+		assertEquals("The slow request should have been abandoned", 0, slowPrimary.getSent().size());
+		sender.shutdown();
+	}
+
+	@Test
+	public void testHedgeBudgetIsCapped() throws Exception {
+		RecordingSender slowPrimary = fakeServer(50, false);
+		RecordingSender secondary = fakeServer(0, false);
+		HedgingNagiosCheckSender sender = new HedgingNagiosCheckSender(slowPrimary, secondary, 0.95, 1, TimeUnit.MILLISECONDS, 0.25, 4, 1);
+
+		for (int i = 0; i < 8; i++) {
+			sender.send(results);
+		}
+		assertEquals(2, sender.getHedgedRequests());
+		sender.shutdown();
+	}
+
+	@Test
+	public void testOutstandingHedgesAreCapped() throws Exception {
+		final AtomicInteger concurrentHedges = new AtomicInteger();
+		final AtomicInteger maxConcurrentHedges = new AtomicInteger();
+		NagiosCheckSender slowSecondary = new NagiosCheckSender() {
+
+			public void send(Collection<NagiosCheckResult> checkResults) throws IOException {
+				maxConcurrentHedges.accumulateAndGet(concurrentHedges.incrementAndGet(), Math::max);
+				try {
+					Thread.sleep(1000);
+				}
+				catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				finally {
+					concurrentHedges.decrementAndGet();
+				}
+			}
+
+			public void shutdown() {
+			}
+		};
+		final HedgingNagiosCheckSender sender = new HedgingNagiosCheckSender(fakeServer(200, false), slowSecondary, 0.95, 1,
+				TimeUnit.MILLISECONDS, 1, 4, 1);
+
+		List<Thread> callers = new ArrayList<Thread>();
+		for (int i = 0; i < 3; i++) {
+			Thread caller = new Thread(() -> {
+				try {
+					sender.send(results);
+				}
+				catch (NRDPException | IOException e) {
+					throw new IllegalStateException(e);
+				}
+			});
+			caller.start();
+			callers.add(caller);
+		}
+		for (Thread caller : callers) {
+			caller.join();
+		}
+		assertTrue(sender.getHedgedRequests() >= 1);
+		assertEquals(1, maxConcurrentHedges.get());
+		sender.shutdown();
+	}
+
+	@Test
+	public void testHedgeMasksPrimaryFailure() throws Exception {
+		RecordingSender secondary = fakeServer(0, false);
+		HedgingNagiosCheckSender sender = new HedgingNagiosCheckSender(fakeServer(100, true), secondary, 0.95, 1,
+				TimeUnit.MILLISECONDS, 1, 4, 1);
+		sender.send(results);
+		assertEquals(1, secondary.getRequests());
+		assertEquals(1, sender.getSecondaryWins());
+		sender.shutdown();
+	}
+
+	@Test(expected = NRDPException.class)
+	public void testFailsWhenBothAttemptsFail() throws Exception {
+		HedgingNagiosCheckSender sender = new HedgingNagiosCheckSender(fakeServer(100, true), fakeServer(0, true), 0.95, 1,
+				TimeUnit.MILLISECONDS, 1, 4, 1);
+		try {
+			sender.send(results);
+		}
+		finally {
+			sender.shutdown();
+		}
+	}
+
+	private static RecordingSender fakeServer(long latencyMillis, boolean failing) {
+		RecordingSender server = new RecordingSender();
+		server.setLatency(latencyMillis);
+		if (failing) {
+			server.failFromRequest(1, new NRDPException("BAD TOKEN"));
+		}
+		return server;
+	}
+}
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -163,4 +164,22 @@ public class NagiosCheckSenderTest {
 
 	}
 
+	@Test
+	public void testWarmUpOpensPooledConnections() throws Exception {
+		NagiosCheckSenderImpl warmSender = new NagiosCheckSenderImpl(defaultSettings, 3);
+		warmSender.getWarmUp().get(10, TimeUnit.SECONDS);
+
+		Assert.assertTrue(warmSender.isWarm());
+		Assert.assertEquals(3, warmSender.getPoolStats().getAvailable());
+
+		// the first request reuses a warm connection
+		String response = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<result>\n  <status>0</status>\n  <message>OK</message>\n</result>\n";
+		testServer.setMockResponseData(response);
+		Collection<NagiosCheckResult> resultsToSend = new ArrayList<NagiosCheckResult>();
+		resultsToSend.add(new NagiosCheckResult("localhost", "prout", State.OK, "testPayload"));
+		warmSender.send(resultsToSend);
+		Assert.assertEquals(3, warmSender.getPoolStats().getAvailable());
+		warmSender.shutdown();
+	}
+
 }
@@ -0,0 +1,126 @@
+package ch.shamu.jsendnrdp.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.shamu.jsendnrdp.NRDPServerConnectionSettings;
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+import ch.shamu.jsendnrdp.domain.State;
+import ch.shamu.jsendnrdp.test.utils.NrdpTestServer;
+
+import com.google.common.collect.Lists;
+
+public class NagiosSenderContextTest {
+
+	private final static int SERVER_PORT = 53662;
+	private final static String URL = "http://localhost:" + SERVER_PORT + "/nrdp/";
+
+	private NrdpTestServer testServer = new NrdpTestServer(SERVER_PORT);
+	private NagiosSenderContext context = new NagiosSenderContext(2, 100, 10);
+
+	@Before
+	public void setup() throws Exception {
+		testServer.start();
+		testServer.setMockResponseData("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<result>\n  <status>0</status>\n  <message>OK</message>\n"
+				+ "</result>\n");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		context.shutdown();
+		testServer.stop();
+	}
+
+	@Test
+	public void testSendersShareResourcesButKeepTheirSettings() throws Exception {
+		context.setMaxConnectionsPerEndpoint(URL, 2);
+		NonBlockingNagiosCheckSender moduleA = context.newSender(new NRDPServerConnectionSettings(URL, "tokenA", 1000), 10, 0);
+		NonBlockingNagiosCheckSender moduleB = context.newSender(new NRDPServerConnectionSettings(URL, "tokenB", 1000), 10, 0);
+		Collection<NagiosCheckResult> results = Collections.singletonList(new NagiosCheckResult("localhost", "prout", State.OK, "ok"));
+
+		moduleA.sendAsync(results).join();
+		assertEquals("tokenA", testServer.getToken());
+		moduleB.sendAsync(results).join();
+		assertEquals("tokenB", testServer.getToken());
+
+		// shutting down one sender leaves the shared resources to the others
+		moduleA.shutdown();
+		moduleB.sendAsync(results).join();
+		assertEquals("tokenB", testServer.getToken());
+	}
+
+	@Test
+	public void testThrottledSenderDoesNotHoldTheWorkers() throws Exception {
+		NonBlockingNagiosCheckSender throttled = context.newSender(new NRDPServerConnectionSettings(URL, "tokenA", 1000), 10, 2);
+		NonBlockingNagiosCheckSender unthrottled = context.newSender(new NRDPServerConnectionSettings(URL, "tokenB", 1000), 10, 0);
+		Collection<NagiosCheckResult> results = Collections.singletonList(new NagiosCheckResult("localhost", "prout", State.OK, "ok"));
+		List<CompletableFuture<Collection<NagiosCheckResult>>> throttledSends = Lists.newArrayList();
+		for (int i = 0; i < 4; i++) {
+			throttledSends.add(throttled.sendAsync(results)); // the last ones wait up to 1.5s for their permits
+		}
+
+		long start = System.nanoTime();
+		unthrottled.sendAsync(results).join();
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("the unthrottled sender waited " + elapsedMillis + "ms", elapsedMillis < 400);
+
+		for (CompletableFuture<Collection<NagiosCheckResult>> send : throttledSends) {
+			send.join();
+		}
+		assertEquals(0, throttled.getQueuedRequests());
+	}
+
+	@Test
+	public void testSendersOfOneEndpointShareTheRequestRate() throws Exception {
+		NonBlockingNagiosCheckSender moduleA = context.newSender(new NRDPServerConnectionSettings(URL, "tokenA", 1000), 10, 10);
+		NonBlockingNagiosCheckSender moduleB = context.newSender(new NRDPServerConnectionSettings(URL, "tokenB", 1000), 10, 10);
+		Collection<NagiosCheckResult> results = Collections.singletonList(new NagiosCheckResult("localhost", "prout", State.OK, "ok"));
+
+		long start = System.nanoTime();
+		List<CompletableFuture<Collection<NagiosCheckResult>>> sends = Lists.newArrayList();
+		for (int i = 0; i < 3; i++) {
+			sends.add(moduleA.sendAsync(results));
+			sends.add(moduleB.sendAsync(results));
+		}
+		for (CompletableFuture<Collection<NagiosCheckResult>> send : sends) {
+			send.join();
+		}
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("6 requests at 10 per second took " + elapsedMillis + "ms", elapsedMillis >= 450);
+	}
+
+	@Test
+	public void testParkedTasksAreBoundedByTheSharedQueue() throws Exception {
+		RingBufferDispatcher dispatcher = new RingBufferDispatcher(1, 2, "nrdp-test");
+		ThrottleTimer timer = new ThrottleTimer(dispatcher);
+		try {
+			assertTrue(timer.defer(() -> {
+			}, TimeUnit.MILLISECONDS.toNanos(50)));
+			assertTrue(timer.defer(() -> {
+			}, TimeUnit.MILLISECONDS.toNanos(50)));
+			assertFalse("a third task parks beyond the queue size", timer.defer(() -> {
+			}, TimeUnit.MILLISECONDS.toNanos(50)));
+
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+			while (timer.getParkedTasks() > 0 && System.nanoTime() < deadline) {
+				Thread.sleep(5);
+			}
+			assertEquals(0, timer.getParkedTasks());
+		}
+		finally {
+			timer.shutdown();
+			dispatcher.shutdown();
+		}
+	}
+}
@@ -6,19 +6,29 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 import org.junit.After;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 
 import ch.shamu.jsendnrdp.NRDPException;
 import ch.shamu.jsendnrdp.NRDPServerConnectionSettings;
 import ch.shamu.jsendnrdp.NagiosCheckSender;
+import ch.shamu.jsendnrdp.domain.BulkSubmissionSummary;
+import ch.shamu.jsendnrdp.domain.DeliveryReceipt;
 import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
 import ch.shamu.jsendnrdp.domain.State;
 import ch.shamu.jsendnrdp.test.utils.NrdpTestServer;
@@ -147,6 +157,182 @@ public class NonBlockingNagiosCheckSenderTest {
 		sender.shutdown();
 	}
 
+	@Test
+	public void testNonBlockingSendReportsFailuresToErrorHandler() throws Exception {
+		final AtomicInteger delivered = new AtomicInteger();
+		NagiosCheckSender failingEveryOtherRequest = new NagiosCheckSender() {
+
+			private final AtomicInteger requests = new AtomicInteger();
+
+			public void send(Collection<NagiosCheckResult> checkResults) throws NRDPException {
+				if (requests.incrementAndGet() % 2 == 0) {
+					throw new NRDPException("BAD TOKEN");
+				}
+				delivered.addAndGet(checkResults.size());
+			}
+
+			public void shutdown() {
+			}
+		};
+		NonBlockingNagiosCheckSender sender = new NonBlockingNagiosCheckSender(failingEveryOtherRequest, NB_THREADS, 100, 0);
+		final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+		sender.setErrorHandler((results, e) -> failures.add(e));
+
+		Collection<NagiosCheckResult> resultsToSend = new ArrayList<NagiosCheckResult>();
+		resultsToSend.add(new NagiosCheckResult("localhost", "prout", State.CRITICAL, "testPayload"));
+		for (int i = 0; i < 1000; i++) {
+			while (true) {
+				try {
+					sender.send(resultsToSend);
+					break;
+				}
+				catch (IOException queueFull) {
+					Thread.sleep(1);
+				}
+			}
+		}
+		sender.shutdown();
+
+		long deadline = System.currentTimeMillis() + 2000;
+		while (delivered.get() + failures.size() < 1000 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(500, delivered.get());
+		assertEquals(500, failures.size());
+		assertEquals(500, sender.getFailedRequests());
+		assertEquals(500, sender.getFailedResults());
+		Assert.assertThat(failures.get(0).getMessage(), is("BAD TOKEN"));
+	}
+
+	@Test
+	public void testNonBlockingSendDoesNotAllocate() throws Exception {
+		// measuring the allocations of a thread is a HotSpot extension
+		Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+		long threadId = Thread.currentThread().getId();
+
+		NagiosCheckSender discarding = new NagiosCheckSender() {
+
+			public void send(Collection<NagiosCheckResult> checkResults) {
+			}
+
+			public void shutdown() {
+			}
+		};
+		NonBlockingNagiosCheckSender sender = new NonBlockingNagiosCheckSender(discarding, NB_THREADS, 100, 0);
+		Collection<NagiosCheckResult> resultsToSend = Collections.singletonList(new NagiosCheckResult("localhost", "prout", State.OK, "ok"));
+		for (int i = 0; i < 10; i++) { // fill the task pool
+			sender.send(resultsToSend);
+		}
+		awaitIdle(sender);
+		for (int i = 0; i < 100; i++) { // leave the one-time allocations (class loading...) out of the measure
+			sender.send(resultsToSend);
+			awaitIdle(sender);
+		}
+		threads.getThreadAllocatedBytes(threadId); // the first measure may allocate itself (native method linking), keep it out too
+
+		long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < 1000; i++) {
+			sender.send(resultsToSend);
+			awaitIdle(sender);
+		}
+		long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+		sender.shutdown();
+
+		// a single object per send would take at least 16000 bytes
+		Assert.assertTrue("sending allocated " + allocated + " bytes", allocated < 1000);
+	}
+
+	private static void awaitIdle(NonBlockingNagiosCheckSender sender) {
+		while (sender.getQueuedRequests() > 0 || sender.getInFlightRequests() > 0) {
+			Thread.yield();
+		}
+	}
+
+	@Test
+	public void testNonBlockingSendSplitsLargeBatches() throws IOException {
+		NonBlockingNagiosCheckSender sender =
+				new NonBlockingNagiosCheckSender(defaultSettings, NB_THREADS, SEND_QUEUE_SIZE, MAX_REQUESTS_PER_SECONDS);
+		sender.setBatchLimits(5, 0);
+
+		// prepare client request
+		Collection<NagiosCheckResult> resultsToSend = new ArrayList<NagiosCheckResult>();
+		for (int i = 0; i < 10; i++) {
+			resultsToSend.add(new NagiosCheckResult("localhost", "prout" + i, State.CRITICAL, "testPayload"));
+		}
+
+		testServer.setNbResponsesReceived(0);
+		Collection<NagiosCheckResult> sent = sender.sendAsync(resultsToSend).join();
+
+		assertEquals(resultsToSend, sent);
+		assertEquals(2, testServer.getNbResponsesReceived());
+
+		// 3 requests don't fit in a queue of 2, the third one is queued once a slot frees up
+		sender.setBatchLimits(4, 0);
+		testServer.setNbResponsesReceived(0);
+		sent = sender.sendAsync(resultsToSend).join();
+
+		assertEquals(resultsToSend, sent);
+		assertEquals(3, testServer.getNbResponsesReceived());
+		sender.shutdown();
+	}
+
+	@Test
+	public void testNonBlockingSendAllStreamsResults() throws IOException {
+		NonBlockingNagiosCheckSender sender =
+				new NonBlockingNagiosCheckSender(defaultSettings, NB_THREADS, SEND_QUEUE_SIZE, MAX_REQUESTS_PER_SECONDS);
+		sender.setBatchLimits(100, 0);
+
+		testServer.setNbResponsesReceived(0);
+		// more requests than the queue can hold : the producer waits instead of failing
+		BulkSubmissionSummary summary = sender.sendAll(IntStream.range(0, 1050)
+				.mapToObj(i -> new NagiosCheckResult("localhost", "prout" + i, State.OK, "testPayload")), 8).join();
+
+		assertEquals(11, summary.getRequests());
+		assertEquals(1050, summary.getDeliveredResults());
+		assertEquals(0, summary.getFailedResults());
+		assertEquals(11, testServer.getNbResponsesReceived());
+		sender.shutdown();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNonBlockingSendAllNeedsRequestsInFlight() throws IOException {
+		NonBlockingNagiosCheckSender sender =
+				new NonBlockingNagiosCheckSender(defaultSettings, NB_THREADS, SEND_QUEUE_SIZE, MAX_REQUESTS_PER_SECONDS);
+		try {
+			sender.sendAll(IntStream.range(0, 10).mapToObj(i -> new NagiosCheckResult("localhost", "prout" + i, State.OK, "testPayload")), 0);
+		}
+		finally {
+			sender.shutdown();
+		}
+	}
+
+	@Test
+	public void testNonBlockingSendWithReceipts() throws IOException {
+		NonBlockingNagiosCheckSender sender =
+				new NonBlockingNagiosCheckSender(defaultSettings, NB_THREADS, SEND_QUEUE_SIZE, MAX_REQUESTS_PER_SECONDS);
+
+		// prepare client request
+		NagiosCheckResult resultToSend = new NagiosCheckResult("localhost", "prout", State.CRITICAL, "testPayload");
+		Collection<NagiosCheckResult> resultsToSend = new ArrayList<NagiosCheckResult>();
+		resultsToSend.add(resultToSend);
+
+		testServer.setDelay(50);
+		List<DeliveryReceipt> receipts = sender.sendAsyncWithReceipts(resultsToSend).join();
+
+		assertEquals(1, receipts.size());
+		DeliveryReceipt receipt = receipts.get(0);
+		assertEquals(resultsToSend, receipt.getResults());
+		assertEquals(defaultSettings.getUrl(), receipt.getEndpoint());
+		assertEquals(1, receipt.getAttempts());
+		Assert.assertTrue(receipt.getQueueNanos() >= 0);
+		Assert.assertTrue(receipt.getThrottleNanos() >= 0);
+		Assert.assertTrue(receipt.getRequestNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+		Assert.assertTrue(receipt.getTotalNanos() >= receipt.getRequestNanos());
+		sender.shutdown();
+	}
+
 	@Test
 	public void testNonBlockingSendThrottling() throws NRDPException, IOException, TimeoutException {
 
@@ -0,0 +1,139 @@
+package ch.shamu.jsendnrdp.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+
+import javax.management.Attribute;
+import javax.management.AttributeNotFoundException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.shamu.jsendnrdp.NRDPServerConnectionSettings;
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+import ch.shamu.jsendnrdp.domain.State;
+import ch.shamu.jsendnrdp.test.utils.NrdpTestServer;
+
+public class NonBlockingSenderManagementTest {
+
+	private final static int SERVER_PORT = 53662;
+
+	private NrdpTestServer testServer = new NrdpTestServer(SERVER_PORT);
+	private NRDPServerConnectionSettings server = new NRDPServerConnectionSettings("http://localhost:" + SERVER_PORT + "/nrdp/", "token",
+			1000);
+	private NonBlockingNagiosCheckSender sender;
+	private NonBlockingSenderManagement management;
+
+	@Before
+	public void setup() throws Exception {
+		testServer.start();
+		testServer.setMockResponseData("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<result>\n  <status>0</status>\n  <message>OK</message>\n"
+				+ "</result>\n");
+		sender = new NonBlockingNagiosCheckSender(server, 2, 10, 0);
+		management = new NonBlockingServerSenderManagement(sender);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		management.unregister();
+		sender.shutdown();
+		testServer.stop();
+	}
+
+	@Test
+	public void testAttributesThroughJmx() throws Exception {
+		MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = management.register("test");
+		Collection<NagiosCheckResult> results = Collections.singletonList(new NagiosCheckResult("localhost", "prout", State.OK, "ok"));
+
+		sender.sendAsync(results).join();
+		assertEquals(1L, mbeanServer.getAttribute(name, "DeliveredRequests"));
+		assertEquals(1L, mbeanServer.getAttribute(name, "DeliveredResults"));
+		assertEquals(0L, mbeanServer.getAttribute(name, "FailedRequests"));
+		assertEquals(0, mbeanServer.getAttribute(name, "QueueDepth"));
+		assertEquals(0, mbeanServer.getAttribute(name, "InFlightRequests"));
+
+		mbeanServer.setAttribute(name, new Attribute("PoolSize", 4));
+		assertEquals(4, sender.getPoolSize());
+		mbeanServer.setAttribute(name, new Attribute("MaxQueueSize", 5));
+		assertEquals(5, sender.getMaxQueueSize());
+		mbeanServer.setAttribute(name, new Attribute("MaxRequestsPerSecond", 100.0));
+		assertEquals(100.0, sender.getRequestRateLimit(), 0);
+		mbeanServer.setAttribute(name, new Attribute("Timeout", 2000));
+		assertEquals(2000, server.getTimeout());
+
+		// still sending with the new settings
+		sender.sendAsync(results).join();
+		assertEquals(2L, mbeanServer.getAttribute(name, "DeliveredRequests"));
+
+		management.unregister();
+		assertFalse(mbeanServer.isRegistered(name));
+	}
+
+	@Test
+	public void testTimeoutReadOnlyForDecoratedSenders() throws Exception {
+		MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		NonBlockingNagiosCheckSender decorated = new NonBlockingNagiosCheckSender(
+				new BisectingNagiosCheckSender(new NagiosCheckSenderImpl(server), 10), 2, 10, 0);
+		NonBlockingSenderManagement decoratedManagement = new NonBlockingSenderManagement(decorated);
+		ObjectName name = decoratedManagement.register("decorated");
+		try {
+			for (MBeanAttributeInfo attribute : mbeanServer.getMBeanInfo(name).getAttributes()) {
+				if (attribute.getName().equals("Timeout")) {
+					assertFalse(attribute.isWritable());
+				}
+			}
+			assertEquals(-1, mbeanServer.getAttribute(name, "Timeout"));
+			try {
+				mbeanServer.setAttribute(name, new Attribute("Timeout", 2000));
+				fail("the timeout of an unknown server can't be set");
+			}
+			catch (AttributeNotFoundException expected) {
+				//
+			}
+			assertEquals(1000, server.getTimeout());
+		}
+		finally {
+			decoratedManagement.unregister();
+			decorated.shutdown();
+		}
+	}
+
+	@Test
+	public void testServerManagementNeedsTheConnectionSettings() {
+		NonBlockingNagiosCheckSender decorated = new NonBlockingNagiosCheckSender(
+				new BisectingNagiosCheckSender(new NagiosCheckSenderImpl(server), 10), 2, 10, 0);
+		try {
+			new NonBlockingServerSenderManagement(decorated);
+			fail("the timeout of an unknown server can't be managed");
+		}
+		catch (IllegalArgumentException expected) {
+			//
+		}
+		new NonBlockingServerSenderManagement(decorated, server).setTimeout(2000);
+		assertEquals(2000, server.getTimeout());
+		decorated.shutdown();
+	}
+
+	@Test
+	public void testQueueBoundLimitedByCapacity() {
+		try {
+			management.setMaxQueueSize(11);
+			fail("the queue can't grow beyond its capacity");
+		}
+		catch (IllegalArgumentException expected) {
+			//
+		}
+		management.setMaxQueueSize(1);
+		assertEquals(1, sender.getMaxQueueSize());
+	}
+}
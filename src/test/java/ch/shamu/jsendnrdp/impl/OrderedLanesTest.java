@@ -0,0 +1,136 @@
+package ch.shamu.jsendnrdp.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import ch.shamu.jsendnrdp.NagiosCheckSender;
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+import ch.shamu.jsendnrdp.domain.State;
+
+public class OrderedLanesTest {
+
+	private final static int SERVICES = 10;
+	private final static int RESULTS_PER_SERVICE = 50;
+
+	private final Map<String, List<Integer>> delivered = new ConcurrentHashMap<String, List<Integer>>();
+
+	private NonBlockingNagiosCheckSender sender;
+
+	@After
+	public void tearDown() {
+		sender.shutdown();
+	}
+
+	@Test
+	public void testResultsOfAServiceAreDeliveredInOrder() throws Exception {
+		NagiosCheckSender jitterySender = new NagiosCheckSender() {
+
+			public void send(Collection<NagiosCheckResult> checkResults) {
+				try {
+					Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				for (NagiosCheckResult r : checkResults) {
+					delivered.computeIfAbsent(r.getService(), s -> new CopyOnWriteArrayList<Integer>()).add(Integer.valueOf(r.getMessage()));
+				}
+			}
+
+			public void shutdown() {
+			}
+		};
+		sender = new NonBlockingNagiosCheckSender(jitterySender, 4, 1000, 0);
+		sender.setOrderedLanes(8);
+		sender.setBatchLimits(3, 0);
+
+		List<CompletableFuture<Collection<NagiosCheckResult>>> futures = new ArrayList<CompletableFuture<Collection<NagiosCheckResult>>>();
+		for (int i = 0; i < RESULTS_PER_SERVICE; i++) {
+			List<NagiosCheckResult> results = new ArrayList<NagiosCheckResult>();
+			for (int s = 0; s < SERVICES; s++) {
+				results.add(new NagiosCheckResult("localhost", "service" + s, State.OK, String.valueOf(i)));
+			}
+			if (i % 2 == 0) {
+				futures.add(sender.sendAsync(results)); // split by lane and by batch limits
+			}
+			else {
+				for (NagiosCheckResult r : results) {
+					sender.send(Collections.singletonList(r));
+				}
+			}
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).join();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (sender.getDeliveredResults() < SERVICES * RESULTS_PER_SERVICE && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+
+		for (int s = 0; s < SERVICES; s++) {
+			List<Integer> order = delivered.get("service" + s);
+			for (int i = 0; i < RESULTS_PER_SERVICE; i++) {
+				assertEquals("service" + s, Integer.valueOf(i), order.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void testLanesAreSentConcurrently() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<String> order = new CopyOnWriteArrayList<String>();
+		NagiosCheckSender blockingSender = new NagiosCheckSender() {
+
+			public void send(Collection<NagiosCheckResult> checkResults) {
+				NagiosCheckResult r = checkResults.iterator().next();
+				if (r.getMessage().equals("blocking")) {
+					try {
+						release.await();
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				order.add(r.getService() + ":" + r.getMessage());
+			}
+
+			public void shutdown() {
+			}
+		};
+		sender = new NonBlockingNagiosCheckSender(blockingSender, 2, 10, 0);
+		sender.setOrderedLanes(4);
+		SerialLanes lanes = new SerialLanes(4, null, null);
+		String other = "b";
+		while (lanes.laneOf(result(other, "")) == lanes.laneOf(result("a", ""))) {
+			other += "b";
+		}
+
+		CompletableFuture<Collection<NagiosCheckResult>> blocked = sender.sendAsync(Collections.singletonList(result("a", "blocking")));
+		CompletableFuture<Collection<NagiosCheckResult>> next = sender.sendAsync(Collections.singletonList(result("a", "next")));
+		sender.sendAsync(Collections.singletonList(result(other, "free"))).get(2, TimeUnit.SECONDS);
+		assertFalse(next.isDone()); // held back by the blocked request of its lane
+
+		release.countDown();
+		blocked.join();
+		next.join();
+		assertEquals(Arrays.asList(other + ":free", "a:blocking", "a:next"), order);
+	}
+
+	private static NagiosCheckResult result(String service, String message) {
+		return new NagiosCheckResult("localhost", service, State.OK, message);
+	}
+}
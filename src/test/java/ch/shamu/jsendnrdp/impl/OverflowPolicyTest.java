@@ -0,0 +1,200 @@
+package ch.shamu.jsendnrdp.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.shamu.jsendnrdp.NagiosCheckSender;
+import ch.shamu.jsendnrdp.ShedResultsException;
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+import ch.shamu.jsendnrdp.domain.State;
+
+public class OverflowPolicyTest {
+
+	private final CountDownLatch started = new CountDownLatch(1);
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final List<String> delivered = new CopyOnWriteArrayList<String>();
+
+	private NonBlockingNagiosCheckSender sender;
+
+	@Before
+	public void setup() throws Exception {
+		NagiosCheckSender blockingSender = new NagiosCheckSender() {
+
+			public void send(Collection<NagiosCheckResult> checkResults) {
+				started.countDown();
+				try {
+					release.await();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				for (NagiosCheckResult r : checkResults) {
+					delivered.add(r.getService());
+				}
+			}
+
+			public void shutdown() {
+			}
+		};
+		// one worker, blocked on the first request, and room for two queued requests
+		sender = new NonBlockingNagiosCheckSender(blockingSender, 1, 2, 0);
+		sender.sendAsync(result("blocker", State.OK));
+		assertTrue(started.await(2, TimeUnit.SECONDS));
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		sender.shutdown();
+	}
+
+	@Test
+	public void testDropOldest() throws Exception {
+		sender.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+		CompletableFuture<Collection<NagiosCheckResult>> a = sender.sendAsync(result("a", State.CRITICAL));
+		CompletableFuture<Collection<NagiosCheckResult>> b = sender.sendAsync(result("b", State.OK));
+		CompletableFuture<Collection<NagiosCheckResult>> c = sender.sendAsync(result("c", State.OK));
+
+		assertShed(a);
+		release.countDown();
+		b.join();
+		c.join();
+		assertEquals(Arrays.asList("blocker", "b", "c"), delivered);
+		assertEquals(1, sender.getShedResults(OverflowPolicy.DROP_OLDEST));
+	}
+
+	@Test
+	public void testDropLowestSeverity() throws Exception {
+		sender.setOverflowPolicy(OverflowPolicy.DROP_LOWEST_SEVERITY);
+		CompletableFuture<Collection<NagiosCheckResult>> a = sender.sendAsync(result("a", State.CRITICAL));
+		CompletableFuture<Collection<NagiosCheckResult>> b = sender.sendAsync(result("b", State.OK));
+		CompletableFuture<Collection<NagiosCheckResult>> c = sender.sendAsync(result("c", State.WARNING));
+		assertShed(b);
+		try {
+			sender.sendAsync(result("d", State.OK)); // less severe than anything queued
+			fail("the new result should have been rejected");
+		}
+		catch (IOException expected) {
+			//
+		}
+
+		release.countDown();
+		a.join();
+		c.join();
+		assertEquals(Arrays.asList("blocker", "a", "c"), delivered);
+		assertEquals(1, sender.getShedResults(OverflowPolicy.DROP_LOWEST_SEVERITY));
+		assertEquals(1, sender.getShedResults(OverflowPolicy.REJECT_NEW));
+	}
+
+	@Test
+	public void testDropSuperseded() throws Exception {
+		sender.setOverflowPolicy(OverflowPolicy.DROP_SUPERSEDED);
+		CompletableFuture<Collection<NagiosCheckResult>> a = sender.sendAsync(result("a", State.CRITICAL));
+		CompletableFuture<Collection<NagiosCheckResult>> b = sender.sendAsync(result("b", State.CRITICAL));
+		CompletableFuture<Collection<NagiosCheckResult>> newerA = sender.sendAsync(result("a", State.OK));
+		assertShed(a);
+		try {
+			sender.sendAsync(result("c", State.CRITICAL)); // supersedes nothing
+			fail("the new result should have been rejected");
+		}
+		catch (IOException expected) {
+			//
+		}
+
+		release.countDown();
+		b.join();
+		newerA.join();
+		assertEquals(Arrays.asList("blocker", "b", "a"), delivered);
+		assertEquals(1, sender.getShedResults(OverflowPolicy.DROP_SUPERSEDED));
+	}
+
+	@Test
+	public void testSupersededResultsAreLiveAgainWhenTheNewerOnesAreShed() throws Exception {
+		sender.setOverflowPolicy(OverflowPolicy.DROP_LOWEST_SEVERITY);
+		CompletableFuture<Collection<NagiosCheckResult>> a = sender.sendAsync(result("a", State.CRITICAL));
+		CompletableFuture<Collection<NagiosCheckResult>> newerA = sender.sendAsync(result("a", State.OK));
+		CompletableFuture<Collection<NagiosCheckResult>> b = sender.sendAsync(result("b", State.WARNING));
+		assertShed(newerA);
+
+		sender.setOverflowPolicy(OverflowPolicy.DROP_SUPERSEDED);
+		try {
+			sender.sendAsync(result("c", State.CRITICAL)); // the first result of a is the latest one again
+			fail("the new result should have been rejected");
+		}
+		catch (IOException expected) {
+			//
+		}
+
+		release.countDown();
+		a.join();
+		b.join();
+		assertEquals(Arrays.asList("blocker", "a", "b"), delivered);
+		assertEquals(0, sender.getShedResults(OverflowPolicy.DROP_SUPERSEDED));
+	}
+
+	@Test
+	public void testSameServiceTwiceInOneRequestIsNotSupersededByItself() throws Exception {
+		sender.setOverflowPolicy(OverflowPolicy.DROP_SUPERSEDED);
+		CompletableFuture<Collection<NagiosCheckResult>> a = sender.sendAsync(Arrays.asList(
+				new NagiosCheckResult("localhost", "a", State.CRITICAL, "output"), new NagiosCheckResult("localhost", "a", State.OK, "output"),
+				new NagiosCheckResult("localhost", "b", State.OK, "output")));
+		CompletableFuture<Collection<NagiosCheckResult>> newerB = sender.sendAsync(result("b", State.CRITICAL));
+		try {
+			sender.sendAsync(result("c", State.CRITICAL)); // the first request still holds the latest result of a
+			fail("the new result should have been rejected");
+		}
+		catch (IOException expected) {
+			//
+		}
+
+		release.countDown();
+		a.join();
+		newerB.join();
+		assertEquals(Arrays.asList("blocker", "a", "a", "b", "b"), delivered);
+	}
+
+	@Test
+	public void testFireAndForgetShedding() throws Exception {
+		final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+		sender.setErrorHandler((results, e) -> failures.add(e));
+		sender.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+		sender.send(result("a", State.OK));
+		sender.send(result("b", State.OK));
+		sender.send(result("c", State.OK));
+
+		assertEquals(1, failures.size());
+		assertTrue(failures.get(0) instanceof ShedResultsException);
+		assertEquals("a", ((ShedResultsException) failures.get(0)).getShedResults().iterator().next().getService());
+		assertEquals(1, sender.getFailedRequests());
+	}
+
+	private static void assertShed(CompletableFuture<Collection<NagiosCheckResult>> future) {
+		try {
+			future.join();
+			fail("the results should have been shed");
+		}
+		catch (CompletionException e) {
+			assertTrue(e.getCause() instanceof ShedResultsException);
+		}
+	}
+
+	private static Collection<NagiosCheckResult> result(String service, State state) {
+		return Collections.singletonList(new NagiosCheckResult("localhost", service, state, "output"));
+	}
+}
@@ -0,0 +1,79 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RingBufferDispatcherTest {
+
+	private final static int NB_PRODUCERS = 8;
+	private final static int JOBS_PER_PRODUCER = 20000;
+
+	@Test
+	public void testEveryJobRunsExactlyOnce() throws InterruptedException {
+		final RingBufferDispatcher dispatcher = new RingBufferDispatcher(4, 64, "test-dispatcher");
+		final AtomicIntegerArray runs = new AtomicIntegerArray(NB_PRODUCERS * JOBS_PER_PRODUCER);
+		final CountDownLatch done = new CountDownLatch(NB_PRODUCERS * JOBS_PER_PRODUCER);
+
+		Thread[] producers = new Thread[NB_PRODUCERS];
+		for (int p = 0; p < NB_PRODUCERS; p++) {
+			final int offset = p * JOBS_PER_PRODUCER;
+			producers[p] = new Thread(() -> {
+				for (int i = 0; i < JOBS_PER_PRODUCER; i++) {
+					final int id = offset + i;
+					Runnable job = () -> {
+						runs.incrementAndGet(id);
+						done.countDown();
+					};
+					while (!dispatcher.offer(job)) {
+						Thread.yield(); // backlog full, wait for the workers to catch up
+					}
+				}
+			});
+			producers[p].start();
+		}
+
+		Assert.assertTrue("not all jobs were executed", done.await(30, TimeUnit.SECONDS));
+		for (int i = 0; i < runs.length(); i++) {
+			Assert.assertEquals("job " + i, 1, runs.get(i));
+		}
+		dispatcher.shutdown();
+	}
+
+	@Test
+	public void testOfferFailsWhenFull() throws InterruptedException {
+		RingBufferDispatcher dispatcher = new RingBufferDispatcher(1, 2, "test-dispatcher");
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch started = new CountDownLatch(1);
+		Runnable blocking = () -> {
+			started.countDown();
+			try {
+				release.await();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		};
+
+		Assert.assertTrue(dispatcher.offer(blocking));
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS)); // the only worker is now busy
+		Assert.assertTrue(dispatcher.offer(() -> {}));
+		Assert.assertTrue(dispatcher.offer(() -> {}));
+		Assert.assertEquals(2, dispatcher.size());
+		Assert.assertFalse(dispatcher.offer(() -> {}));
+
+		release.countDown();
+		dispatcher.shutdown();
+	}
+
+	@Test(expected = RejectedExecutionException.class)
+	public void testOfferAfterShutdown() {
+		RingBufferDispatcher dispatcher = new RingBufferDispatcher(1, 2, "test-dispatcher");
+		dispatcher.shutdown();
+		dispatcher.offer(() -> {});
+	}
+}
@@ -0,0 +1,75 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ch.shamu.jsendnrdp.NRDPException;
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+import ch.shamu.jsendnrdp.domain.State;
+import ch.shamu.jsendnrdp.test.utils.RecordingSender;
+
+public class RollupNagiosCheckSenderTest {
+
+	@Test
+	public void testResultsAreRolledUp() throws NRDPException, IOException {
+		RecordingSender recorder = new RecordingSender();
+		RollupNagiosCheckSender sender = new RollupNagiosCheckSender(recorder,
+				r -> r.getService().startsWith("container-") ? new RollupNagiosCheckSender.Group("cluster", "containers") : null, 1, TimeUnit.HOURS,
+				2);
+
+		List<NagiosCheckResult> results = new ArrayList<NagiosCheckResult>();
+		for (int i = 0; i < 100; i++) {
+			results.add(new NagiosCheckResult("node" + (i % 10), "container-" + i, State.OK, "running"));
+		}
+		results.set(3, new NagiosCheckResult("node3", "container-3", State.WARNING, "slow"));
+		results.set(42, new NagiosCheckResult("node2", "container-42", State.CRITICAL, "crashed\nstack trace"));
+		results.set(77, new NagiosCheckResult("node7", "container-77", State.UNKNOWN, "no data"));
+		NagiosCheckResult ungrouped = new NagiosCheckResult("cluster", "api", State.OK, "fine");
+		results.add(ungrouped);
+
+		sender.send(results);
+		// only the last result of an instance counts
+		sender.send(Collections.singletonList(new NagiosCheckResult("node5", "container-5", State.WARNING, "degraded")));
+
+		Assert.assertEquals(1, recorder.getSent().size());
+		Assert.assertSame(ungrouped, recorder.getSent().get(0));
+
+		sender.flush();
+
+		Assert.assertEquals(2, recorder.getSent().size());
+		NagiosCheckResult summary = recorder.getSent().get(1);
+		Assert.assertEquals("cluster", summary.getHost());
+		Assert.assertEquals("containers", summary.getService());
+		Assert.assertEquals(State.CRITICAL, summary.getState());
+		String[] lines = summary.getMessage().split("\n");
+		Assert.assertEquals("CRITICAL - 100 results : 1 CRITICAL, 1 UNKNOWN, 2 WARNING, 96 OK", lines[0]);
+		Assert.assertEquals("CRITICAL node2/container-42 : crashed", lines[1]);
+		Assert.assertEquals("UNKNOWN node7/container-77 : no data", lines[2]);
+		Assert.assertEquals("... and 2 more", lines[3]);
+
+		sender.flush(); // empty window
+		Assert.assertEquals(2, recorder.getSent().size());
+		sender.shutdown();
+	}
+
+	@Test
+	public void testOffenderPerfDataIsDropped() throws NRDPException, IOException {
+		RecordingSender recorder = new RecordingSender();
+		RollupNagiosCheckSender sender = new RollupNagiosCheckSender(recorder, r -> new RollupNagiosCheckSender.Group("cluster", "disks"), 1,
+				TimeUnit.HOURS, 5);
+
+		sender.send(Collections.singletonList(new NagiosCheckResult("node1", "disk", State.CRITICAL, "DISK CRITICAL | /=95%;80;90")));
+		sender.flush();
+
+		String[] lines = recorder.getSent().get(0).getMessage().split("\n");
+		Assert.assertEquals("CRITICAL node1/disk : DISK CRITICAL", lines[1]);
+		Assert.assertEquals(-1, recorder.getSent().get(0).getMessage().indexOf('|'));
+		sender.shutdown();
+	}
+}
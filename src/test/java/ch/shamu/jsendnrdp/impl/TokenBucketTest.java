@@ -0,0 +1,52 @@
+package ch.shamu.jsendnrdp.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+	private final static long TOLERANCE = TimeUnit.MILLISECONDS.toNanos(20);
+
+	@Test
+	public void testBurstIsFree() {
+		TokenBucket bucket = new TokenBucket(10, 5);
+		for (int i = 0; i < 5; i++) {
+			Assert.assertEquals(0, bucket.reserve(1));
+		}
+		long wait = bucket.reserve(1);
+		Assert.assertTrue("waited " + wait, Math.abs(wait - TimeUnit.MILLISECONDS.toNanos(100)) < TOLERANCE);
+	}
+
+	@Test
+	public void testOneSecondBurstStartsSmooth() throws InterruptedException {
+		TokenBucket bucket = TokenBucket.oneSecondBurst(20);
+		Assert.assertEquals(20, bucket.getBurst(), 0);
+		Assert.assertEquals(0, bucket.reserve(1));
+		long wait = bucket.reserve(1);
+		Assert.assertTrue("waited " + wait, Math.abs(wait - TimeUnit.MILLISECONDS.toNanos(50)) < TOLERANCE);
+
+		Thread.sleep(1100); // one second of unused rate is stored
+		for (int i = 0; i < 20; i++) {
+			Assert.assertEquals(0, bucket.reserve(1));
+		}
+		Assert.assertTrue(bucket.reserve(1) > 0);
+	}
+
+	@Test
+	public void testOversizedReservationPaysItsDebt() {
+		TokenBucket bucket = new TokenBucket(100, 50);
+		Assert.assertEquals(0, bucket.reserve(50));
+		long wait = bucket.reserve(150); // 150 permits at 100 per second, bucket empty
+		Assert.assertTrue("waited " + wait, Math.abs(wait - TimeUnit.MILLISECONDS.toNanos(1500)) < TOLERANCE);
+	}
+
+	@Test
+	public void testBatchesAreSizedByBursts() {
+		Throttle throttle = Throttle.UNLIMITED.withResultRate(1000, 100);
+		BatchSplitter splitter = throttle.limit(new BatchSplitter(500, 0));
+		Assert.assertTrue(splitter.isFull(100, 0, 0));
+		Assert.assertFalse(splitter.isFull(99, 0, 0));
+	}
+}
@@ -0,0 +1,93 @@
+package ch.shamu.jsendnrdp.test.utils;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Ignore;
+
+import ch.shamu.jsendnrdp.NRDPException;
+import ch.shamu.jsendnrdp.NRDPRejectionException;
+import ch.shamu.jsendnrdp.NagiosCheckSender;
+import ch.shamu.jsendnrdp.domain.NagiosCheckResult;
+
+/**
+ * Fake blocking sender recording the results it delivers. It can be slowed down, reject the results of a host like a NRDP server would, or
+ * fail from a given request on (server going down). Safe for concurrent use.
+ */
+@Ignore
+public class RecordingSender implements NagiosCheckSender {
+
+	private final List<NagiosCheckResult> sent = new CopyOnWriteArrayList<NagiosCheckResult>();
+	private final AtomicInteger requests = new AtomicInteger();
+	private volatile long latencyMillis;
+	private volatile String rejectedHost;
+	private volatile int failingFromRequest = Integer.MAX_VALUE;
+	private volatile Exception failure;
+
+	public void send(Collection<NagiosCheckResult> checkResults) throws NRDPException, IOException {
+		int request = requests.incrementAndGet();
+		if (latencyMillis > 0) {
+			try {
+				Thread.sleep(latencyMillis);
+			}
+			catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+		}
+		if (request >= failingFromRequest) {
+			if (failure instanceof IOException) {
+				throw (IOException) failure;
+			}
+			throw (NRDPException) failure;
+		}
+		for (NagiosCheckResult r : checkResults) {
+			if (r.getHost().equals(rejectedHost)) {
+				throw new NRDPRejectionException("NRDP server returned with code -1 and message BAD XML");
+			}
+		}
+		sent.addAll(checkResults);
+	}
+
+	public void shutdown() {
+	}
+
+	/**
+	 * @param latencyMillis is the time each request takes before being delivered
+	 */
+	public void setLatency(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	/**
+	 * @param host is the host whose results make the whole request rejected (NRDPRejectionException)
+	 */
+	public void rejectHost(String host) {
+		this.rejectedHost = host;
+	}
+
+	/**
+	 * @param request is the first failing request (1 for all of them)
+	 * @param failure is thrown by the failing requests, a NRDPException or an IOException
+	 */
+	public void failFromRequest(int request, Exception failure) {
+		this.failure = failure;
+		this.failingFromRequest = request;
+	}
+
+	/**
+	 * @return the results delivered so far, in the order they were delivered
+	 */
+	public List<NagiosCheckResult> getSent() {
+		return sent;
+	}
+
+	/**
+	 * @return the number of requests, delivered or not
+	 */
+	public int getRequests() {
+		return requests.get();
+	}
+}